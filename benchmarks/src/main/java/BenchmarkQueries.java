@@ -0,0 +1,34 @@
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * Benchmark entry points that need application types the benchmarks package
+ * cannot name, such as the visitor of a spatial query. They are compiled with
+ * the application classes and reached through EngineBridge.
+ */
+final class BenchmarkQueries {
+    private BenchmarkQueries() {
+    }
+
+    /**
+     * Indexes the positions the way range checks do and returns a counter of
+     * the positions within {@code range} on X/Z of a query point, found with
+     * {@link SpatialIndex#forEachWithin}.
+     */
+    static ToIntFunction<double[]> rangeCounter(List<Path> paths, List<double[]> positions, double range) {
+        PositionStore store = new PositionStore(positions.size());
+        for (int i = 0; i < positions.size(); i++) {
+            store.add(paths.get(i), positions.get(i));
+        }
+        ProximityMetric metric = ProximityMetric.xz(range);
+        SpatialIndex index = SpatialIndex.forMetric(store, metric);
+        int[] close = new int[1];
+        SpatialIndex.NeighbourVisitor counter = (other, distanceSq) -> close[0]++;
+        return query -> {
+            close[0] = 0;
+            index.forEachWithin(query[0], query[1], query[2], metric, counter);
+            return close[0];
+        };
+    }
+}
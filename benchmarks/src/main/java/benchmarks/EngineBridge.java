@@ -0,0 +1,83 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * The application classes live in the unnamed package, which JMH benchmarks
+ * cannot import from, so they are reached through method handles instead.
+ */
+final class EngineBridge {
+    private final Object engine;
+    private final Object extractor;
+    private final MethodHandle processJsonFiles;
+    private final MethodHandle checkPositionRange;
+    private final MethodHandle checkDuplicatePositions;
+    private final MethodHandle extract;
+    private final MethodHandle rangeCounter;
+
+    EngineBridge(int loaderThreads) {
+        try {
+            ClassLoader loader = EngineBridge.class.getClassLoader();
+            Class<?> logSink = Class.forName("LogSink", true, loader);
+            Object silent = Proxy.newProxyInstance(loader, new Class<?>[] {logSink},
+                (proxy, method, args) -> method.getName().equals("log") ? null : method.invoke(this, args));
+
+            Class<?> engineClass = Class.forName("TeleportEngine", true, loader);
+            Constructor<?> engineConstructor = engineClass.getDeclaredConstructor(logSink, int.class);
+            engineConstructor.setAccessible(true);
+            engine = engineConstructor.newInstance(silent, loaderThreads);
+            processJsonFiles = handle(engineClass, "processJsonFiles", String.class, String.class);
+            checkPositionRange = handle(engineClass, "checkPositionRange", String.class, double.class);
+            checkDuplicatePositions = handle(engineClass, "checkDuplicatePositions", String.class);
+
+            Class<?> mapperClass = Class.forName("com.fasterxml.jackson.databind.ObjectMapper", true, loader);
+            Class<?> extractorClass = Class.forName("PositionExtractor", true, loader);
+            Constructor<?> extractorConstructor = extractorClass.getDeclaredConstructor(mapperClass);
+            extractorConstructor.setAccessible(true);
+            extractor = extractorConstructor.newInstance(mapperClass.getConstructor().newInstance());
+            extract = handle(extractorClass, "extract", Path.class);
+
+            rangeCounter = handle(Class.forName("BenchmarkQueries", true, loader), "rangeCounter",
+                List.class, List.class, double.class);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Application classes not on the classpath", e);
+        }
+    }
+
+    void processJsonFiles(Path directory, String baseName) throws Throwable {
+        processJsonFiles.invoke(engine, directory.toString(), baseName);
+    }
+
+    void checkPositionRange(Path directory, double range) throws Throwable {
+        checkPositionRange.invoke(engine, directory.toString(), range);
+    }
+
+    void checkDuplicatePositions(Path directory) throws Throwable {
+        checkDuplicatePositions.invoke(engine, directory.toString());
+    }
+
+    double[] extractPosition(Path file) throws Throwable {
+        return (double[]) extract.invoke(extractor, file);
+    }
+
+    /** Counts positions within {@code range} on X/Z of a query point through the engine's SpatialIndex. */
+    @SuppressWarnings("unchecked")
+    ToIntFunction<double[]> rangeCounter(List<Path> paths, List<double[]> positions, double range)
+            throws Throwable {
+        return (ToIntFunction<double[]>) rangeCounter.invoke(paths, positions, range);
+    }
+
+    private static MethodHandle handle(Class<?> owner, String name, Class<?>... parameterTypes)
+            throws ReflectiveOperationException {
+        Method method = owner.getDeclaredMethod(name, parameterTypes);
+        method.setAccessible(true);
+        return MethodHandles.lookup().unreflect(method);
+    }
+}
@@ -0,0 +1,134 @@
+package benchmarks;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Distance scans over positions held as one object per file (a path plus a
+ * double[3], the layout the engine used to have) against the same positions
+ * in coordinate columns, and the engine's own query through a SpatialIndex
+ * over a PositionStore. Each operation counts the positions within range of
+ * a fixed set of query points, so the answer is the same in all three; the
+ * scans differ in memory layout and the index only looks at nearby cells.
+ *
+ * <pre>
+ * cd benchmarks &amp;&amp; mvn -B package
+ * java -jar target/benchmarks.jar LayoutBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class LayoutBenchmark {
+    private static final int QUERIES = 16;
+    private static final double RANGE_SQ = 40.0 * 40.0;
+
+    /** One file as the object layout holds it. */
+    static final class FileEntry {
+        final Path path;
+        final double[] position;
+
+        FileEntry(Path path, double[] position) {
+            this.path = path;
+            this.position = position;
+        }
+    }
+
+    @Param({"10000", "100000", "1000000"})
+    public int positions;
+
+    private List<FileEntry> entries;
+    private double[] xs;
+    private double[] ys;
+    private double[] zs;
+    private double[][] queries;
+    private ToIntFunction<double[]> spatialIndex;
+
+    @Setup(Level.Trial)
+    public void generate() throws Throwable {
+        Random random = new Random(42);
+        double extent = Math.sqrt(positions) * TeleportData.SPACING;
+        entries = new ArrayList<>(positions);
+        xs = new double[positions];
+        ys = new double[positions];
+        zs = new double[positions];
+        for (int i = 0; i < positions; i++) {
+            double[] position = {random.nextDouble() * extent, 64 + random.nextInt(64), random.nextDouble() * extent};
+            // Allocated in scan order, a path and its position array per file
+            entries.add(new FileEntry(Paths.get("teleports", "teleport_" + i + ".json"), position));
+            xs[i] = position[0];
+            ys[i] = position[1];
+            zs[i] = position[2];
+        }
+        queries = new double[QUERIES][];
+        for (int q = 0; q < QUERIES; q++) {
+            queries[q] = new double[] {random.nextDouble() * extent, 96, random.nextDouble() * extent};
+        }
+        List<Path> paths = new ArrayList<>(positions);
+        List<double[]> points = new ArrayList<>(positions);
+        for (FileEntry entry : entries) {
+            paths.add(entry.path);
+            points.add(entry.position);
+        }
+        spatialIndex = new EngineBridge(1).rangeCounter(paths, points, Math.sqrt(RANGE_SQ));
+    }
+
+    @Benchmark
+    public int objectLayout() {
+        int close = 0;
+        for (double[] query : queries) {
+            for (FileEntry entry : entries) {
+                double dx = entry.position[0] - query[0];
+                double dz = entry.position[2] - query[2];
+                if (dx * dx + dz * dz < RANGE_SQ) {
+                    close++;
+                }
+            }
+        }
+        return close;
+    }
+
+    @Benchmark
+    public int columns() {
+        int close = 0;
+        for (double[] query : queries) {
+            for (int i = 0; i < positions; i++) {
+                double dx = xs[i] - query[0];
+                double dz = zs[i] - query[2];
+                if (dx * dx + dz * dz < RANGE_SQ) {
+                    close++;
+                }
+            }
+        }
+        return close;
+    }
+
+    @Benchmark
+    public int spatialIndex() {
+        int close = 0;
+        for (double[] query : queries) {
+            close += spatialIndex.applyAsInt(query);
+        }
+        return close;
+    }
+}
@@ -0,0 +1,111 @@
+package benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end timings of the three engine operations on generated directories.
+ *
+ * <pre>
+ * cd benchmarks &amp;&amp; mvn -B package
+ * java -jar target/benchmarks.jar OperationsBenchmark -p files=1000,10000
+ * </pre>
+ *
+ * The 1M file size needs several GB of free temp space and takes a while to
+ * generate, so select sizes with -p when running locally.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class OperationsBenchmark {
+    private static final String INDEX_FILE = ".positions.idx";
+
+    @State(Scope.Benchmark)
+    public static class Teleports {
+        @Param({"1000", "10000", "100000", "1000000"})
+        public int files;
+
+        // "cold" removes the position index before every run, "warm" keeps it
+        @Param({"cold", "warm"})
+        public String index;
+
+        Path directory;
+        EngineBridge engine;
+
+        @Setup(Level.Trial)
+        public void generate() throws Exception {
+            directory = TeleportData.generate(files);
+            engine = new EngineBridge(Runtime.getRuntime().availableProcessors());
+        }
+
+        @Setup(Level.Iteration)
+        public void resetIndex() throws Exception {
+            if (index.equals("cold")) {
+                Files.deleteIfExists(directory.resolve(INDEX_FILE));
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void cleanUp() throws Exception {
+            TeleportData.delete(directory);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class RenameTarget {
+        @Param({"1000", "10000", "100000", "1000000"})
+        public int files;
+
+        Path directory;
+        EngineBridge engine;
+
+        @Setup(Level.Trial)
+        public void createDirectory() throws Exception {
+            directory = Files.createTempDirectory("rename-" + files + "-");
+            engine = new EngineBridge(Runtime.getRuntime().availableProcessors());
+        }
+
+        // Renaming consumes the input, so every run starts from fresh files
+        @Setup(Level.Iteration)
+        public void regenerate() throws Exception {
+            TeleportData.clear(directory);
+            TeleportData.fill(directory, files);
+        }
+
+        @TearDown(Level.Trial)
+        public void cleanUp() throws Exception {
+            TeleportData.delete(directory);
+        }
+    }
+
+    @Benchmark
+    public void rangeCheck(Teleports state) throws Throwable {
+        state.engine.checkPositionRange(state.directory, 40);
+    }
+
+    @Benchmark
+    public void duplicateCheck(Teleports state) throws Throwable {
+        state.engine.checkDuplicatePositions(state.directory);
+    }
+
+    @Benchmark
+    public void rename(RenameTarget state) throws Throwable {
+        state.engine.processJsonFiles(state.directory, "bench");
+    }
+}
@@ -0,0 +1,79 @@
+package benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of reading the position out of a single teleport file, comparing the
+ * full tree parse with the streaming extractor. Cycles through a small set of
+ * generated files so the numbers include the file open and read.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ParseBenchmark {
+    private static final int FILES = 256;
+
+    private Path directory;
+    private Path[] files;
+    private int next;
+    private ObjectMapper mapper;
+    private EngineBridge engine;
+
+    @Setup(Level.Trial)
+    public void generate() throws Exception {
+        directory = TeleportData.generate(FILES);
+        try (Stream<Path> listing = Files.list(directory)) {
+            List<Path> paths = listing.sorted().collect(Collectors.toList());
+            files = paths.toArray(new Path[0]);
+        }
+        mapper = new ObjectMapper();
+        engine = new EngineBridge(1);
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanUp() throws Exception {
+        TeleportData.delete(directory);
+    }
+
+    private Path nextFile() {
+        Path file = files[next];
+        next = (next + 1) % files.length;
+        return file;
+    }
+
+    @Benchmark
+    public void treeParse(Blackhole blackhole) throws Exception {
+        JsonNode posNode = mapper.readTree(nextFile().toFile()).get("position");
+        blackhole.consume(posNode.get(0).asDouble());
+        blackhole.consume(posNode.get(1).asDouble());
+        blackhole.consume(posNode.get(2).asDouble());
+    }
+
+    @Benchmark
+    public double[] streamingExtract() throws Throwable {
+        return engine.extractPosition(nextFile());
+    }
+}
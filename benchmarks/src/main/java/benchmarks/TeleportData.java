@@ -0,0 +1,69 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Writes synthetic teleport directories in the same shape as 1.json. Positions
+ * sit on a jittered lattice whose spacing is larger than any range the
+ * benchmarks use, so the range and duplicate checks find nothing to delete and
+ * can be repeated against the same directory.
+ */
+final class TeleportData {
+    static final double SPACING = 100.0;
+
+    private TeleportData() {
+    }
+
+    static Path generate(int count) throws IOException {
+        Path directory = Files.createTempDirectory("teleports-" + count + "-");
+        fill(directory, count);
+        return directory;
+    }
+
+    static void fill(Path directory, int count) {
+        int side = (int) Math.ceil(Math.sqrt(count));
+        IntStream.range(0, count).parallel().forEach(i -> {
+            Random random = new Random(i);
+            double x = (i % side) * SPACING + random.nextDouble() * 10.0;
+            double y = random.nextDouble() * 300.0;
+            double z = (i / side) * SPACING + random.nextDouble() * 10.0;
+            String json = String.format(Locale.ROOT,
+                "{\"description\": \"user%04d\", \"name\": \"%08x\", \"position\": [%.10f, %.11f, %.8f]}",
+                random.nextInt(10000), random.nextInt(), x, y, z);
+            try {
+                Files.write(directory.resolve(String.format("tp%07d.json", i)),
+                    json.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    static void clear(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    static void delete(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
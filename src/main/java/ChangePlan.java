@@ -0,0 +1,161 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The renames and deletions an operation wants to make in a directory,
+ * collected without touching any file. A plan can be applied right away or
+ * written to a file, reviewed, and applied later without scanning again.
+ *
+ * <p>The file format is one change per line, tab separated, with paths
+ * relative to the directory on the header line:
+ * <pre>
+ * # teleport-renamer change plan v1
+ * dir    /data/world1
+ * R      old.json    base_100.json    base_100    new_description
+ * D      dup.json
+ * </pre>
+ */
+class ChangePlan {
+    private static final String HEADER = "# teleport-renamer change plan v1";
+
+    enum Kind { RENAME, DELETE }
+
+    static class Change {
+        final Kind kind;
+        final Path source;
+        final Path target;       // RENAME only
+        final String name;        // RENAME only
+        final String description; // RENAME only
+        final ByteBuffer contents;  // RENAME only: the source as read while planning, null if not kept
+
+        Change(Kind kind, Path source, Path target, String name, String description, ByteBuffer contents) {
+            this.kind = kind;
+            this.source = source;
+            this.target = target;
+            this.name = name;
+            this.description = description;
+            this.contents = contents;
+        }
+    }
+
+    private final Path directory;
+    private final List<Change> changes = new ArrayList<>();
+
+    ChangePlan(Path directory) {
+        this.directory = directory.toAbsolutePath().normalize();
+    }
+
+    Path directory() {
+        return directory;
+    }
+
+    List<Change> changes() {
+        return Collections.unmodifiableList(changes);
+    }
+
+    int size() {
+        return changes.size();
+    }
+
+    boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    void rename(Path source, Path target, String name, String description) {
+        rename(source, target, name, description, null);
+    }
+
+    /**
+     * A rename that reuses {@code contents}, the source as it was read while
+     * planning, instead of reading it again. Plan files never hold contents.
+     */
+    void rename(Path source, Path target, String name, String description, ByteBuffer contents) {
+        changes.add(new Change(Kind.RENAME, resolve(source), resolve(target), name, description, contents));
+    }
+
+    void delete(Path file) {
+        changes.add(new Change(Kind.DELETE, resolve(file), null, null, null, null));
+    }
+
+    void write(Path file) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write(HEADER);
+            out.newLine();
+            out.write("dir\t" + field(directory.toString()));
+            out.newLine();
+            for (Change change : changes) {
+                if (change.kind == Kind.RENAME) {
+                    out.write("R\t" + field(relative(change.source)) + "\t" + field(relative(change.target))
+                        + "\t" + field(change.name) + "\t" + field(change.description));
+                } else {
+                    out.write("D\t" + field(relative(change.source)));
+                }
+                out.newLine();
+            }
+        }
+    }
+
+    /** Reads only the directory a plan file applies to. */
+    static Path readDirectory(Path file) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return readHeader(in, file);
+        }
+    }
+
+    static ChangePlan read(Path file) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            ChangePlan plan = new ChangePlan(readHeader(in, file));
+            String line;
+            int lineNumber = 2;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\t", -1);
+                if (fields[0].equals("R") && fields.length == 5) {
+                    plan.rename(plan.directory.resolve(fields[1]), plan.directory.resolve(fields[2]),
+                        fields[3], fields[4]);
+                } else if (fields[0].equals("D") && fields.length == 2) {
+                    plan.delete(plan.directory.resolve(fields[1]));
+                } else {
+                    throw new IOException("Malformed change on line " + lineNumber + " of " + file);
+                }
+            }
+            return plan;
+        }
+    }
+
+    private static Path readHeader(BufferedReader in, Path file) throws IOException {
+        String header = in.readLine();
+        String dirLine = in.readLine();
+        if (!HEADER.equals(header) || dirLine == null || !dirLine.startsWith("dir\t")) {
+            throw new IOException("Not a change plan: " + file);
+        }
+        return Paths.get(dirLine.substring(4));
+    }
+
+    private static Path resolve(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    private String relative(Path path) {
+        return directory.relativize(path).toString();
+    }
+
+    private static String field(String value) throws IOException {
+        if (value.indexOf('\t') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+            throw new IOException("Cannot store value with tab or line break in a change plan: " + value);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,99 @@
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Opens JSON parsers straight over file contents. Teleport files are tiny, so
+ * the cost per file is mostly opening and buffering: small files are read with
+ * one channel read into a byte array that is reused per thread, and Jackson
+ * parses that array in place. Files above {@link #MAP_THRESHOLD} are memory
+ * mapped instead of being copied onto the heap, except on Windows: there a
+ * mapped file cannot be deleted or moved until the mapping is garbage
+ * collected, and checks delete or rename the files they have just read.
+ *
+ * <p>The array is heap memory rather than a direct buffer because Jackson's
+ * byte parser works on arrays; a direct buffer would need a copy back out. A
+ * parser over the shared array must be closed before the same thread opens
+ * the next one.
+ */
+final class FileBytes {
+    static final int MAP_THRESHOLD = 1 << 20;
+
+    private static final boolean MAPPING_LOCKS_FILES =
+        System.getProperty("os.name", "").toLowerCase().startsWith("windows");
+
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[8192]);
+
+    private FileBytes() {
+    }
+
+    static JsonParser createParser(JsonFactory factory, Path path) throws IOException {
+        return createParser(factory, read(path));
+    }
+
+    /** Parser over contents returned by {@link #read}. */
+    static JsonParser createParser(JsonFactory factory, ByteBuffer contents) throws IOException {
+        if (contents.hasArray()) {
+            return factory.createParser(contents.array(), contents.arrayOffset() + contents.position(),
+                contents.remaining());
+        }
+        return factory.createParser(new ByteBufferBackedInputStream(contents.duplicate()));
+    }
+
+    /**
+     * Returns the whole file, either in the calling thread's shared array or as
+     * a read-only mapping. Shared contents are only valid until the thread
+     * reads the next file.
+     */
+    static ByteBuffer read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= MAP_THRESHOLD && !MAPPING_LOCKS_FILES) {
+                // The mapping stays valid after the channel is closed
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+
+            byte[] buffer = BUFFER.get();
+            if (buffer.length < size) {
+                buffer = new byte[Integer.highestOneBit((int) size) << 1];
+                BUFFER.set(buffer);
+            }
+            ByteBuffer contents = ByteBuffer.wrap(buffer, 0, (int) size);
+            while (contents.hasRemaining()) {
+                if (channel.read(contents) < 0) {
+                    throw new EOFException("File shrank while reading: " + path);
+                }
+            }
+            contents.flip();
+            return contents;
+        }
+    }
+
+    /**
+     * Returns the whole file in a new array of its own, never mapped, for
+     * contents that are kept after the thread reads other files or belong to
+     * a file that is about to be moved.
+     */
+    static ByteBuffer readCopy(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IOException("File too large to read: " + path);
+            }
+            ByteBuffer contents = ByteBuffer.allocate((int) size);
+            while (contents.hasRemaining()) {
+                if (channel.read(contents) < 0) {
+                    throw new EOFException("File shrank while reading: " + path);
+                }
+            }
+            contents.flip();
+            return contents;
+        }
+    }
+}
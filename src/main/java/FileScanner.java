@@ -0,0 +1,114 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Lists the files a check should look at. Each directory is listed by its own
+ * fork-join task and subdirectories are forked down to the configured depth, so
+ * trees with many folders are walked in parallel. Symbolic links to directories
+ * are not followed. The result is sorted, which makes "keep the first file"
+ * decisions independent of the file system's listing order. The files the
+ * tool keeps next to the teleports (position index, rename journal and rename
+ * temp files) are never listed, whatever the glob.
+ */
+class FileScanner {
+    interface DirectoryVisitor {
+        /** Called for every directory before its files are listed. */
+        void visit(Path directory);
+    }
+
+    private final ForkJoinPool pool;
+    private final LogSink log;
+
+    FileScanner(int threads, LogSink log) {
+        this.pool = new ForkJoinPool(Math.max(1, threads));
+        this.log = log;
+    }
+
+    List<Path> scan(Path root, ScanOptions options, DirectoryVisitor visitor) throws IOException {
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + options.glob);
+        // The root must be readable, unreadable folders below it are skipped
+        if (!Files.isDirectory(root)) {
+            throw new IOException("Not a directory: " + root);
+        }
+        try {
+            List<Path> files = pool.invoke(new ListTask(root, 0, options.maxDepth, matcher, visitor, log));
+            files.sort(null);
+            return files;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** True for the index, journal and temp files the tool writes into scanned folders. */
+    static boolean isToolFile(String fileName) {
+        return fileName.equals(PositionIndexCache.INDEX_FILE)
+            || fileName.equals(PositionIndexCache.INDEX_FILE + ".tmp")
+            || fileName.equals(RenameJournal.JOURNAL_FILE)
+            || (fileName.startsWith(".") && fileName.endsWith(".tmp"));
+    }
+
+    private static class ListTask extends RecursiveTask<List<Path>> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+        private final int depth;
+        private final int maxDepth;
+        private final PathMatcher matcher;
+        private final DirectoryVisitor visitor;
+        private final LogSink log;
+
+        ListTask(Path directory, int depth, int maxDepth, PathMatcher matcher, DirectoryVisitor visitor,
+                LogSink log) {
+            this.directory = directory;
+            this.depth = depth;
+            this.maxDepth = maxDepth;
+            this.matcher = matcher;
+            this.visitor = visitor;
+            this.log = log;
+        }
+
+        @Override
+        protected List<Path> compute() {
+            visitor.visit(directory);
+
+            List<Path> files = new ArrayList<>();
+            List<ListTask> subdirectories = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                        if (depth < maxDepth) {
+                            ListTask task = new ListTask(entry, depth + 1, maxDepth, matcher, visitor, log);
+                            task.fork();
+                            subdirectories.add(task);
+                        }
+                    } else if (Files.isRegularFile(entry) && matcher.matches(entry.getFileName())
+                            && !isToolFile(entry.getFileName().toString())) {
+                        files.add(entry);
+                    }
+                }
+            } catch (IOException e) {
+                if (depth == 0) {
+                    throw new UncheckedIOException(e);
+                }
+                log.log("Error accessing directory: " + directory);
+            }
+
+            for (ListTask task : subdirectories) {
+                files.addAll(task.join());
+            }
+            return files;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads the file changes of a plan over a small pool of I/O threads. Changes
+ * are grouped by the directory they happen in and each group is cut into
+ * chunks, so every chunk touches one directory and can share that directory's
+ * journal. Chunks of all directories run in parallel. On slow or network
+ * storage most of the time goes to waiting on the file system, so a few
+ * threads overlap that latency.
+ *
+ * <p>If a change in a directory renames onto a file that another change in
+ * the same directory renames or deletes, the plan relies on its order there.
+ * Such a directory is run as one chunk in plan order.
+ */
+class IoScheduler {
+    /** Applies a chunk of changes that all lie in {@code directory}, returns how many succeeded. */
+    interface ChunkWorker {
+        int apply(Path directory, List<ChangePlan.Change> chunk) throws IOException;
+    }
+
+    /** Totals of one run. */
+    static class Result {
+        final int applied;
+        final int directories;
+        final Set<Path> failedDirectories; // a chunk stopped on an I/O error
+
+        Result(int applied, int directories, Set<Path> failedDirectories) {
+            this.applied = applied;
+            this.directories = directories;
+            this.failedDirectories = failedDirectories;
+        }
+    }
+
+    private final int threads;
+    private final int chunkSize;
+    private final LogSink log;
+
+    IoScheduler(int threads, int chunkSize, LogSink log) {
+        this.threads = Math.max(1, threads);
+        this.chunkSize = Math.max(1, chunkSize);
+        this.log = log;
+    }
+
+    /** Changes grouped by the directory of their source, in plan order. */
+    static Map<Path, List<ChangePlan.Change>> byDirectory(List<ChangePlan.Change> changes) {
+        Map<Path, List<ChangePlan.Change>> groups = new LinkedHashMap<>();
+        for (ChangePlan.Change change : changes) {
+            groups.computeIfAbsent(change.source.getParent(), k -> new ArrayList<>()).add(change);
+        }
+        return groups;
+    }
+
+    Result run(List<ChangePlan.Change> changes, ChunkWorker worker) {
+        Map<Path, List<ChangePlan.Change>> groups = byDirectory(changes);
+        List<Path> chunkDirectories = new ArrayList<>();
+        List<List<ChangePlan.Change>> chunks = new ArrayList<>();
+        for (Map.Entry<Path, List<ChangePlan.Change>> group : groups.entrySet()) {
+            List<ChangePlan.Change> groupChanges = group.getValue();
+            int size = dependsOnOrder(groupChanges) ? groupChanges.size() : chunkSize;
+            for (int start = 0; start < groupChanges.size(); start += size) {
+                chunkDirectories.add(group.getKey());
+                chunks.add(groupChanges.subList(start, Math.min(groupChanges.size(), start + size)));
+            }
+        }
+
+        int applied = 0;
+        Set<Path> failed = new HashSet<>();
+        if (threads == 1 || chunks.size() == 1) {
+            for (int i = 0; i < chunks.size(); i++) {
+                Path directory = chunkDirectories.get(i);
+                try {
+                    applied += worker.apply(directory, chunks.get(i));
+                } catch (IOException e) {
+                    failed.add(directory);
+                    reportError(directory, e);
+                }
+            }
+            return new Result(applied, groups.size(), failed);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, chunks.size()), daemonThreads());
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < chunks.size(); i++) {
+                Path directory = chunkDirectories.get(i);
+                List<ChangePlan.Change> chunk = chunks.get(i);
+                results.add(pool.submit(() -> worker.apply(directory, chunk)));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                Path directory = chunkDirectories.get(i);
+                try {
+                    applied += results.get(i).get();
+                } catch (ExecutionException e) {
+                    failed.add(directory);
+                    reportError(directory, e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdown();
+        }
+        return new Result(applied, groups.size(), failed);
+    }
+
+    // True if a change targets a file another change of the group works on
+    private static boolean dependsOnOrder(List<ChangePlan.Change> changes) {
+        Set<Path> sources = new HashSet<>();
+        for (ChangePlan.Change change : changes) {
+            sources.add(change.source);
+        }
+        for (ChangePlan.Change change : changes) {
+            if (change.target != null && sources.contains(change.target)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void reportError(Path directory, Throwable e) {
+        log.log("Error applying changes in " + directory);
+        e.printStackTrace();
+    }
+
+    private static ThreadFactory daemonThreads() {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "io-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
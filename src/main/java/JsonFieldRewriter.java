@@ -0,0 +1,103 @@
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * Replaces the "name" and "description" values of a teleport file without
+ * re-serializing it. The streaming parser finds the byte ranges of the two
+ * string values and the file is written back as the unchanged bytes between
+ * them plus the two new values, so formatting, field order, number spelling
+ * and every other field stay exactly as they were.
+ *
+ * <p>Only the simple case is handled here: a top-level object with exactly one
+ * "name" and one "description", both strings. Anything else is left to the
+ * tree rewrite, which can add missing fields.
+ */
+class JsonFieldRewriter {
+    private final JsonFactory factory;
+
+    JsonFieldRewriter(JsonFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Writes {@code contents} to {@code out} with the two values replaced.
+     * Returns false without writing anything if the file is not in the shape
+     * this rewrite handles.
+     */
+    boolean rewrite(ByteBuffer contents, String name, String description, GatheringByteChannel out)
+            throws IOException {
+        // {start, end} byte ranges of the quoted values, relative to contents
+        long[] nameRange = null;
+        long[] descriptionRange = null;
+        try (JsonParser parser = FileBytes.createParser(factory, contents)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return false;
+            }
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                boolean isName = "name".equals(field);
+                if (!isName && !"description".equals(field)) {
+                    parser.skipChildren();
+                    continue;
+                }
+                if (value != JsonToken.VALUE_STRING || (isName ? nameRange : descriptionRange) != null) {
+                    return false;
+                }
+                long start = parser.getTokenLocation().getByteOffset();
+                parser.getText(); // strings are read lazily, this moves past the closing quote
+                long[] range = {start, parser.getCurrentLocation().getByteOffset()};
+                if (isName) {
+                    nameRange = range;
+                } else {
+                    descriptionRange = range;
+                }
+            }
+            // The whole document has to be valid, as it would be for the tree rewrite
+            if (token != JsonToken.END_OBJECT || parser.nextToken() != null) {
+                return false;
+            }
+        } catch (JsonProcessingException e) {
+            return false;
+        }
+        if (nameRange == null || descriptionRange == null) {
+            return false;
+        }
+
+        long[] first = nameRange[0] < descriptionRange[0] ? nameRange : descriptionRange;
+        long[] second = first == nameRange ? descriptionRange : nameRange;
+        ByteBuffer[] parts = {
+            slice(contents, 0, first[0]),
+            quoted(first == nameRange ? name : description),
+            slice(contents, first[1], second[0]),
+            quoted(second == nameRange ? name : description),
+            slice(contents, second[1], contents.remaining())
+        };
+        while (parts[parts.length - 1].hasRemaining()) {
+            out.write(parts);
+        }
+        return true;
+    }
+
+    private static ByteBuffer slice(ByteBuffer contents, long from, long to) {
+        ByteBuffer slice = contents.duplicate();
+        slice.position(contents.position() + (int) from);
+        slice.limit(contents.position() + (int) to);
+        return slice;
+    }
+
+    private static ByteBuffer quoted(String value) {
+        byte[] escaped = JsonStringEncoder.getInstance().quoteAsUTF8(value);
+        ByteBuffer buffer = ByteBuffer.allocate(escaped.length + 2);
+        buffer.put((byte) '"').put(escaped).put((byte) '"');
+        buffer.flip();
+        return buffer;
+    }
+}
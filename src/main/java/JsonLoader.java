@@ -0,0 +1,101 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Loading stage shared by all file operations. Files are parsed on a fixed pool
+ * of worker threads while results are handed back on the calling thread in the
+ * original file order. At most a few parses per worker are in flight at once, so
+ * a slow consumer holds back the workers instead of piling up parsed files.
+ */
+class JsonLoader {
+    interface FileParser<T> {
+        T parse(Path path) throws IOException;
+    }
+
+    interface ResultHandler<T> {
+        void accept(Path path, T result);
+    }
+
+    interface ErrorHandler {
+        void onError(Path path, IOException e);
+    }
+
+    private static final int IN_FLIGHT_PER_WORKER = 4;
+
+    private final int workers;
+
+    JsonLoader(int workers) {
+        this.workers = Math.max(1, workers);
+    }
+
+    static List<Path> listJsonFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(Files::isRegularFile)
+                        .filter(path -> path.toString().endsWith(".json"))
+                        .collect(Collectors.toList());
+        }
+    }
+
+    <T> void forEachOrdered(List<Path> files, FileParser<T> parser,
+                            ResultHandler<T> onResult, ErrorHandler onError) {
+        if (workers == 1) {
+            for (Path path : files) {
+                try {
+                    onResult.accept(path, parser.parse(path));
+                } catch (IOException e) {
+                    onError.onError(path, e);
+                }
+            }
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers, daemonThreads());
+        ArrayDeque<Future<T>> window = new ArrayDeque<>();
+        int maxInFlight = workers * IN_FLIGHT_PER_WORKER;
+        int submitted = 0;
+        int completed = 0;
+        try {
+            while (completed < files.size()) {
+                // Keep the window full, then hand back the oldest result
+                while (submitted < files.size() && window.size() < maxInFlight) {
+                    Path path = files.get(submitted++);
+                    window.add(pool.submit(() -> parser.parse(path)));
+                }
+                Path path = files.get(completed++);
+                try {
+                    onResult.accept(path, window.poll().get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        onError.onError(path, (IOException) e.getCause());
+                    } else {
+                        onError.onError(path, new IOException(e.getCause()));
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static ThreadFactory daemonThreads() {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "json-loader-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -1,6 +1,3 @@
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import javax.swing.*;
 import javax.swing.border.TitledBorder;
 import java.awt.*;
@@ -8,16 +5,8 @@ import java.io.File;
 import java.io.IOException;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.stream.Stream;
-import java.util.List;
-import java.util.Map;
-import java.util.HashMap;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Set;
 import java.util.Properties;
 
 public class JsonUpdater {
@@ -26,6 +15,12 @@ public class JsonUpdater {
     private JTextField directoryPathField;
     private JTextArea logArea;
     private JSpinner rangeSpinner;
+    private JCheckBox dryRunCheckBox;
+    private JCheckBox heightCheckBox;
+    private JCheckBox recursiveCheckBox;
+    private JCheckBox perDirectoryCheckBox;
+    private JComboBox<KeeperPolicy> keeperComboBox;
+    private PositionWatcher watcher;
     private boolean darkMode = false;
     private Color lightBackground = new Color(240, 240, 240);
     private Color darkBackground = new Color(43, 43, 43);
@@ -41,9 +36,35 @@ public class JsonUpdater {
     private Color darkLogArea = new Color(30, 30, 30);
     private static final String SETTINGS_FILE = "jsonupdater.properties";
     private Properties settings;
+    private int loaderThreads = Runtime.getRuntime().availableProcessors();
+    private int ioThreads = TeleportEngine.DEFAULT_IO_THREADS;
+    private TeleportEngine engine;
+    private Path metricsDirectory; // optional "metricsDirectory" setting for per-run JSON metrics
+    private LogBuffer logBuffer;
+    private TaskExecutor taskExecutor;
+    private TaskContext currentTask;
+    private int runningTasks;      // submitted and not yet finished, only touched on the EDT
+    private JProgressBar progressBar;
+    private JButton cancelButton;
+    private ResultStore resultStore; // null if its temp files could not be created
+    private ResultsView resultsView;
+    private static final int TASK_THREADS = 2;
+    private static final int LOG_MAX_LINES = 10000;
+    private static final int LOG_FLUSH_MILLIS = 100;
 
     public JsonUpdater() {
         loadSettings();
+        engine = new TeleportEngine(this::log, loaderThreads);
+        engine.setMetricsDirectory(metricsDirectory);
+        engine.setIoThreads(ioThreads);
+        try {
+            resultStore = new ResultStore();
+            engine.setResultSink(resultStore);
+        } catch (IOException e) {
+            System.err.println("Error creating results store, results are only logged");
+            e.printStackTrace();
+        }
+        taskExecutor = new TaskExecutor(TASK_THREADS, this::log);
         createAndShowGUI();
     }
 
@@ -55,6 +76,10 @@ public class JsonUpdater {
                 try (FileInputStream in = new FileInputStream(settingsFile)) {
                     settings.load(in);
                     darkMode = Boolean.parseBoolean(settings.getProperty("darkMode", "false"));
+                    loaderThreads = threadSetting("loaderThreads", loaderThreads);
+                    ioThreads = threadSetting("ioThreads", ioThreads);
+                    String metrics = settings.getProperty("metricsDirectory", "");
+                    metricsDirectory = metrics.isEmpty() ? null : Paths.get(metrics);
                 }
             }
         } catch (IOException e) {
@@ -62,6 +87,24 @@ public class JsonUpdater {
         }
     }
 
+    // A positive thread count from the settings, the default if it is missing or invalid
+    private int threadSetting(String name, int defaultValue) {
+        String value = settings.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int threads = Integer.parseInt(value.trim());
+            if (threads > 0) {
+                return threads;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        System.err.println("Invalid " + name + " setting \"" + value + "\", using " + defaultValue);
+        return defaultValue;
+    }
+
     private void saveSettings() {
         try {
             settings.setProperty("darkMode", String.valueOf(darkMode));
@@ -191,18 +234,65 @@ public class JsonUpdater {
         gbc.gridx = 1;
         inputPanel.add(rangeSpinner, gbc);
 
+        // Which file of a cluster of close positions the range check keeps
+        gbc.gridx = 0;
+        gbc.gridy = 4;
+        JLabel keeperLabel = new JLabel("Keep in cluster:");
+        keeperLabel.setFont(new Font("Arial", Font.BOLD, 12));
+        keeperLabel.setForeground(getCurrentTextColor());
+        inputPanel.add(keeperLabel, gbc);
+
+        keeperComboBox = new JComboBox<>(KeeperPolicy.values());
+        keeperComboBox.setPreferredSize(new Dimension(0, 30));
+        updateComboBoxTheme(keeperComboBox);
+        gbc.gridx = 1;
+        inputPanel.add(keeperComboBox, gbc);
+
+        // Stacked floors need height in the distance, flat worlds do not
+        heightCheckBox = new JCheckBox("Include height (Y) in range distances");
+        heightCheckBox.setFont(new Font("Arial", Font.BOLD, 12));
+        updateCheckBoxTheme(heightCheckBox);
+        gbc.gridy = 5;
+        inputPanel.add(heightCheckBox, gbc);
+
+        // Dry run toggle
+        dryRunCheckBox = new JCheckBox("Dry run (save a change plan instead of changing files)");
+        dryRunCheckBox.setFont(new Font("Arial", Font.BOLD, 12));
+        updateCheckBoxTheme(dryRunCheckBox);
+        gbc.gridy = 6;
+        inputPanel.add(dryRunCheckBox, gbc);
+
+        // Recursive scanning toggles for the position checks
+        recursiveCheckBox = new JCheckBox("Include subdirectories in position checks");
+        recursiveCheckBox.setFont(new Font("Arial", Font.BOLD, 12));
+        updateCheckBoxTheme(recursiveCheckBox);
+        gbc.gridy = 7;
+        inputPanel.add(recursiveCheckBox, gbc);
+
+        perDirectoryCheckBox = new JCheckBox("Check each subdirectory separately");
+        perDirectoryCheckBox.setFont(new Font("Arial", Font.BOLD, 12));
+        perDirectoryCheckBox.setEnabled(false);
+        updateCheckBoxTheme(perDirectoryCheckBox);
+        gbc.gridy = 8;
+        inputPanel.add(perDirectoryCheckBox, gbc);
+        recursiveCheckBox.addActionListener(e -> perDirectoryCheckBox.setEnabled(recursiveCheckBox.isSelected()));
+
         // Button panel
-        JPanel buttonPanel = new JPanel(new GridLayout(3, 1, 0, 10));
+        JPanel buttonPanel = new JPanel(new GridLayout(5, 1, 0, 10));
         updateTheme(buttonPanel);
         buttonPanel.setBorder(BorderFactory.createEmptyBorder(10, 0, 10, 0));
 
         JButton processButton = createStyledButton("Process Files");
         JButton checkRangeButton = createStyledButton("Check Position Range");
         JButton checkDuplicatesButton = createStyledButton("Check Duplicate Positions");
+        JButton applyPlanButton = createStyledButton("Apply Change Plan");
+        JButton watchButton = createStyledButton("Watch Directory");
 
         buttonPanel.add(processButton);
         buttonPanel.add(checkRangeButton);
         buttonPanel.add(checkDuplicatesButton);
+        buttonPanel.add(applyPlanButton);
+        buttonPanel.add(watchButton);
 
         // Log area with title
         JPanel logPanel = new JPanel(new BorderLayout(5, 5));
@@ -223,9 +313,33 @@ public class JsonUpdater {
         logArea.setEditable(false);
         logArea.setFont(new Font("Monospaced", Font.PLAIN, 12));
         updateLogAreaTheme(logArea);
+        logBuffer = new LogBuffer(logArea, LOG_MAX_LINES, LOG_FLUSH_MILLIS);
+        logBuffer.start();
         JScrollPane scrollPane = new JScrollPane(logArea);
         scrollPane.setPreferredSize(new Dimension(0, 300));
-        logPanel.add(scrollPane, BorderLayout.CENTER);
+        if (resultStore == null) {
+            logPanel.add(scrollPane, BorderLayout.CENTER);
+        } else {
+            // Kept and deleted files of the last check, as a table next to the log
+            resultsView = new ResultsView(resultStore);
+            JTabbedPane tabs = new JTabbedPane();
+            tabs.addTab("Log", scrollPane);
+            tabs.addTab("Results", resultsView);
+            logPanel.add(tabs, BorderLayout.CENTER);
+        }
+
+        // Progress of the last started task
+        JPanel progressPanel = new JPanel(new BorderLayout(10, 0));
+        updateTheme(progressPanel);
+        progressBar = new JProgressBar(0, 1000);
+        progressBar.setStringPainted(true);
+        progressBar.setString("Idle");
+        progressBar.setPreferredSize(new Dimension(0, 30));
+        cancelButton = createStyledButton("Cancel");
+        cancelButton.setEnabled(false);
+        progressPanel.add(progressBar, BorderLayout.CENTER);
+        progressPanel.add(cancelButton, BorderLayout.EAST);
+        logPanel.add(progressPanel, BorderLayout.SOUTH);
 
         // Add all components to main panel
         mainPanel.add(inputPanel, BorderLayout.NORTH);
@@ -276,11 +390,14 @@ public class JsonUpdater {
                 return;
             }
 
-            processButton.setEnabled(false);
-            new Thread(() -> {
-                processJsonFiles(directoryPath, baseName);
-                SwingUtilities.invokeLater(() -> processButton.setEnabled(true));
-            }).start();
+            Path planFile = null;
+            if (dryRunCheckBox.isSelected() && (planFile = choosePlanFile(true)) == null) {
+                return;
+            }
+
+            Path finalPlanFile = planFile;
+            runTask("Rename", directoryPath, processButton,
+                () -> engine.processJsonFiles(directoryPath, baseName, finalPlanFile));
         });
 
         checkRangeButton.addActionListener(e -> {
@@ -294,11 +411,19 @@ public class JsonUpdater {
                 return;
             }
 
-            checkRangeButton.setEnabled(false);
-            new Thread(() -> {
-                checkPositionRange(directoryPath, (Integer) rangeSpinner.getValue());
-                SwingUtilities.invokeLater(() -> checkRangeButton.setEnabled(true));
-            }).start();
+            Path planFile = null;
+            if (dryRunCheckBox.isSelected() && (planFile = choosePlanFile(true)) == null) {
+                return;
+            }
+
+            Path finalPlanFile = planFile;
+            ScanOptions scanOptions = currentScanOptions();
+            KeeperPolicy keeper = (KeeperPolicy) keeperComboBox.getSelectedItem();
+            ProximityMetric metric = currentMetric();
+            runTask("Position range check", directoryPath, checkRangeButton, () -> {
+                clearResults();
+                engine.checkPositionRange(directoryPath, metric, scanOptions, keeper, finalPlanFile);
+            });
         });
 
         checkDuplicatesButton.addActionListener(e -> {
@@ -312,11 +437,68 @@ public class JsonUpdater {
                 return;
             }
 
-            checkDuplicatesButton.setEnabled(false);
-            new Thread(() -> {
-                checkDuplicatePositions(directoryPath);
-                SwingUtilities.invokeLater(() -> checkDuplicatesButton.setEnabled(true));
-            }).start();
+            Path planFile = null;
+            if (dryRunCheckBox.isSelected() && (planFile = choosePlanFile(true)) == null) {
+                return;
+            }
+
+            Path finalPlanFile = planFile;
+            ScanOptions scanOptions = currentScanOptions();
+            runTask("Duplicate position check", directoryPath, checkDuplicatesButton, () -> {
+                clearResults();
+                engine.checkDuplicatePositions(directoryPath, scanOptions, finalPlanFile);
+            });
+        });
+
+        applyPlanButton.addActionListener(e -> {
+            Path planFile = choosePlanFile(false);
+            if (planFile == null) {
+                return;
+            }
+
+            Path planDirectory;
+            try {
+                planDirectory = ChangePlan.readDirectory(planFile);
+            } catch (IOException ex) {
+                log("Error reading change plan: " + planFile);
+                ex.printStackTrace();
+                return;
+            }
+            runTask("Apply change plan", planDirectory.toString(), applyPlanButton,
+                () -> engine.applyPlanFile(planFile));
+        });
+
+        cancelButton.addActionListener(e -> {
+            if (currentTask != null) {
+                currentTask.cancel();
+                cancelButton.setEnabled(false);
+                progressBar.setString("Cancelling...");
+            }
+        });
+
+        watchButton.addActionListener(e -> {
+            if (watcher != null) {
+                watcher.stop();
+                watcher = null;
+                watchButton.setText("Watch Directory");
+                return;
+            }
+
+            String directoryPath = directoryPathField.getText();
+            if (directoryPath.isEmpty()) {
+                JOptionPane.showMessageDialog(frame, 
+                    "Please select a directory",
+                    "Input Error",
+                    JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+
+            // Only flags collisions, files are left where they are
+            watcher = engine.watchPositions(directoryPath, currentMetric(), false);
+            Thread watchThread = new Thread(watcher, "watch-" + directoryPath);
+            watchThread.setDaemon(true);
+            watchThread.start();
+            watchButton.setText("Stop Watching");
         });
 
         frame.pack();
@@ -335,8 +517,14 @@ public class JsonUpdater {
                 updateSpinnerTheme((JSpinner) comp);
             } else if (comp instanceof JButton) {
                 updateButtonTheme((JButton) comp);
+            } else if (comp instanceof JCheckBox) {
+                updateCheckBoxTheme((JCheckBox) comp);
+            } else if (comp instanceof JComboBox) {
+                updateComboBoxTheme((JComboBox<?>) comp);
             } else if (comp instanceof JTextArea) {
                 updateLogAreaTheme((JTextArea) comp);
+            } else if (comp instanceof JTable) {
+                updateTableTheme((JTable) comp);
             } else if (comp instanceof JPanel) {
                 updateTheme((JPanel)comp);
                 updateAllThemes((Container) comp);
@@ -374,6 +562,24 @@ public class JsonUpdater {
         button.setForeground(darkMode ? darkText : Color.WHITE);
     }
 
+    private void updateCheckBoxTheme(JCheckBox checkBox) {
+        checkBox.setBackground(darkMode ? darkBackground : lightBackground);
+        checkBox.setForeground(darkMode ? darkText : lightText);
+    }
+
+    private void updateComboBoxTheme(JComboBox<?> comboBox) {
+        comboBox.setBackground(darkMode ? darkLogArea : lightLogArea);
+        comboBox.setForeground(darkMode ? darkText : lightText);
+    }
+
+    private void updateTableTheme(JTable table) {
+        table.setBackground(darkMode ? darkLogArea : lightLogArea);
+        table.setForeground(darkMode ? darkText : lightText);
+        table.setSelectionBackground(darkMode ? darkButtonHover : lightButtonHover);
+        table.setSelectionForeground(darkMode ? darkText : lightText);
+        table.setGridColor(darkMode ? darkBorder : lightBorder);
+    }
+
     private void updateLogAreaTheme(JTextArea logArea) {
         logArea.setBackground(darkMode ? darkLogArea : lightLogArea);
         logArea.setForeground(darkMode ? darkText : lightText);
@@ -409,256 +615,99 @@ public class JsonUpdater {
         return button;
     }
 
-    private void processJsonFiles(String directoryPath, String baseFileName) {
-        ObjectMapper mapper = new ObjectMapper();
-        final int[] counter = {100}; // Start from 100
+    private void log(String message) {
+        logBuffer.log(message);
+    }
 
-        try {
-            // First, find the highest existing number
-            Files.list(Paths.get(directoryPath))
-                 .filter(Files::isRegularFile)
-                 .filter(path -> path.toString().endsWith(".json"))
-                 .filter(path -> path.getFileName().toString().startsWith(baseFileName))
-                 .forEach(path -> {
-                     try {
-                         String fileName = path.getFileName().toString();
-                         String numberStr = fileName.substring(baseFileName.length() + 1, 
-                                                            fileName.length() - 5); // remove .json
-                         int number = Integer.parseInt(numberStr);
-                         counter[0] = Math.max(counter[0], number + 1);
-                     } catch (Exception e) {
-                         // Skip files that don't match the exact pattern
-                     }
-                 });
-
-            // Then process only non-renamed files
-            Files.list(Paths.get(directoryPath))
-                 .filter(Files::isRegularFile)
-                 .filter(path -> path.toString().endsWith(".json"))
-                 .filter(path -> !path.getFileName().toString().startsWith(baseFileName)) // Only process non-renamed files
-                 .sorted()
-                 .forEach(path -> {
-                     try {
-                         JsonNode rootNode = mapper.readTree(path.toFile());
-                         
-                         if (rootNode instanceof ObjectNode) {
-                             ObjectNode objectNode = (ObjectNode) rootNode;
-                             
-                             String newName = String.format("%s_%d", baseFileName, counter[0]);
-                             
-                             objectNode.put("description", "new_description");
-                             objectNode.put("name", newName);
-                             
-                             String newFileName = newName + ".json";
-                             Path newPath = path.resolveSibling(newFileName);
-                             
-                             mapper.writerWithDefaultPrettyPrinter()
-                                  .writeValue(newPath.toFile(), rootNode);
-                             
-                             Files.delete(path);
-                             
-                             log("Updated and renamed file: " + newPath);
-                             counter[0]++;
-                         }
-                     } catch (IOException e) {
-                         log("Error processing file: " + path);
-                         e.printStackTrace();
-                     }
-                 });
-            log("Processing complete!");
-        } catch (IOException e) {
-            log("Error accessing directory");
-            e.printStackTrace();
+    // Each check starts with an empty results table
+    private void clearResults() {
+        if (resultsView != null) {
+            resultsView.clear();
         }
     }
 
-    private void checkPositionRange(String directoryPath, double range) {
-        ObjectMapper mapper = new ObjectMapper();
-        List<PositionEntry> positions = new ArrayList<>();
-        
-        try {
-            // First pass: collect all positions from ALL files
-            Files.list(Paths.get(directoryPath))
-                 .filter(Files::isRegularFile)
-                 .filter(path -> path.toString().endsWith(".json"))
-                 // Removed the filter that was skipping renamed files
-                 .forEach(path -> {
-                     try {
-                         JsonNode rootNode = mapper.readTree(path.toFile());
-                         if (rootNode.has("position")) {
-                             JsonNode posNode = rootNode.get("position");
-                             double[] pos = new double[] {
-                                 posNode.get(0).asDouble(),
-                                 posNode.get(1).asDouble(),
-                                 posNode.get(2).asDouble()
-                             };
-                             positions.add(new PositionEntry(path, pos));
-                         }
-                     } catch (IOException e) {
-                         log("Error reading file: " + path);
-                         e.printStackTrace();
-                     }
-                 });
-
-            log("\n=== Position Range Check Results ===");
-            log("Checking for positions within " + range + " units of each other");
-            log("Comparing only X and Z coordinates (ignoring Y/height)");
-            
-            Set<Path> filesToDelete = new HashSet<>();
-            
-            // Compare each position with every other position
-            for (int i = 0; i < positions.size(); i++) {
-                for (int j = i + 1; j < positions.size(); j++) {
-                    PositionEntry p1 = positions.get(i);
-                    PositionEntry p2 = positions.get(j);
-                    
-                    double distance = calculateXZDistance(p1.position, p2.position);
-                    
-                    if (distance < range) {
-                        // Keep the first file, mark the second for deletion
-                        if (!filesToDelete.contains(p1.path)) {
-                            filesToDelete.add(p2.path);
-                            log("\nFound close positions (XZ distance: " + String.format("%.2f", distance) + "):");
-                            log(String.format("Keeping: %s [%.2f, %.2f, %.2f]", 
-                                p1.path.getFileName(), p1.position[0], p1.position[1], p1.position[2]));
-                            log(String.format("Will delete: %s [%.2f, %.2f, %.2f]", 
-                                p2.path.getFileName(), p2.position[0], p2.position[1], p2.position[2]));
-                        }
-                    }
+    /**
+     * Runs an operation on the task pool with {@code button} disabled until it
+     * ends. Refused with a message while another task works on the directory.
+     */
+    private void runTask(String name, String directoryPath, JButton button, Runnable body) {
+        TaskContext[] task = new TaskContext[1];
+        task[0] = taskExecutor.submit(name, directoryPath, body,
+            progress -> SwingUtilities.invokeLater(() -> {
+                if (currentTask == task[0]) {
+                    showProgress(progress);
                 }
-            }
-            
-            // Delete marked files
-            if (!filesToDelete.isEmpty()) {
-                log("\nDeleting files:");
-                for (Path path : filesToDelete) {
-                    try {
-                        Files.delete(path);
-                        log("  - Deleted: " + path.getFileName());
-                    } catch (IOException e) {
-                        log("  - Error deleting " + path.getFileName());
-                        e.printStackTrace();
-                    }
+            }),
+            () -> SwingUtilities.invokeLater(() -> {
+                button.setEnabled(true);
+                runningTasks--;
+                if (resultsView != null) {
+                    resultsView.setChecksRunning(runningTasks > 0);
                 }
-                log("\nDeleted " + filesToDelete.size() + " files");
-            } else {
-                log("\nNo files found within " + range + " units of each other (XZ plane)");
-            }
-            
-            log("\nTotal files checked: " + positions.size());
-            
-        } catch (IOException e) {
-            log("Error accessing directory");
-            e.printStackTrace();
+                if (currentTask == task[0]) {
+                    currentTask = null;
+                    cancelButton.setEnabled(false);
+                    progressBar.setIndeterminate(false);
+                    progressBar.setValue(0);
+                    progressBar.setString("Idle");
+                }
+            }));
+        if (task[0] == null) {
+            JOptionPane.showMessageDialog(frame,
+                "Another task is already working on this directory",
+                "Directory Busy",
+                JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        button.setEnabled(false);
+        currentTask = task[0];
+        cancelButton.setEnabled(true);
+        // Clearing while a check appends rows would mix two runs in the table
+        runningTasks++;
+        if (resultsView != null) {
+            resultsView.setChecksRunning(true);
         }
     }
 
-    private double calculateXZDistance(double[] pos1, double[] pos2) {
-        double dx = pos1[0] - pos2[0];  // X coordinate
-        double dz = pos1[2] - pos2[2];  // Z coordinate (last number)
-        return Math.sqrt(dx*dx + dz*dz); // Ignoring Y (height) in the distance calculation
+    private void showProgress(TaskContext.Progress progress) {
+        progressBar.setIndeterminate(progress.total <= 0);
+        if (progress.total > 0) {
+            progressBar.setValue((int) (progress.done * 1000 / progress.total));
+        }
+        progressBar.setString(progress.task + " - " + progress);
     }
 
-    private void checkDuplicatePositions(String directoryPath) {
-        ObjectMapper mapper = new ObjectMapper();
-        Map<String, List<Path>> positionToFiles = new HashMap<>();
-        
-        try {
-            log("\n=== Starting Duplicate Position Check ===");
-            
-            // First pass: collect all positions from ALL files
-            Files.list(Paths.get(directoryPath))
-                 .filter(Files::isRegularFile)
-                 .filter(path -> path.toString().endsWith(".json"))
-                 // Removed the filter that was skipping renamed files
-                 .forEach(path -> {
-                     try {
-                         JsonNode rootNode = mapper.readTree(path.toFile());
-                         if (rootNode.has("position")) {
-                             JsonNode posNode = rootNode.get("position");
-                             String positionKey = String.format("%.2f,%.2f,%.2f",
-                                 posNode.get(0).asDouble(),
-                                 posNode.get(1).asDouble(),
-                                 posNode.get(2).asDouble());
-                             
-                             log("File: " + path.getFileName() + " Position: " + positionKey);
-                             
-                             positionToFiles.computeIfAbsent(positionKey, k -> new ArrayList<>())
-                                          .add(path);
-                         } else {
-                             log("Warning: No position found in " + path.getFileName());
-                         }
-                     } catch (IOException e) {
-                         log("Error reading file: " + path);
-                         e.printStackTrace();
-                     }
-                 });
-
-            log("\n=== Exact Duplicate Position Check Results ===");
-            
-            boolean duplicatesFound = false;
-            
-            // Check for duplicates and delete duplicate files
-            for (Map.Entry<String, List<Path>> entry : positionToFiles.entrySet()) {
-                List<Path> files = entry.getValue();
-                if (files.size() > 1) {
-                    duplicatesFound = true;
-                    log("\nDuplicate position found: " + entry.getKey());
-                    log("Files with this position:");
-                    for (Path p : files) {
-                        log("  - " + p.getFileName());
-                    }
-                    log("\nKeeping file: " + files.get(0).getFileName());
-                    log("Deleting duplicates:");
-                    
-                    // Start from index 1 to keep the first file
-                    for (int i = 1; i < files.size(); i++) {
-                        Path duplicatePath = files.get(i);
-                        try {
-                            Files.delete(duplicatePath);
-                            log("  - Deleted: " + duplicatePath.getFileName());
-                        } catch (IOException e) {
-                            log("  - Error deleting " + duplicatePath.getFileName());
-                            e.printStackTrace();
-                        }
-                    }
-                }
-            }
+    private ProximityMetric currentMetric() {
+        int range = (Integer) rangeSpinner.getValue();
+        return heightCheckBox.isSelected() ? ProximityMetric.xyz(range) : ProximityMetric.xz(range);
+    }
 
-            if (!duplicatesFound) {
-                log("\nNo exact duplicate positions found!");
-                log("Positions found:");
-                for (String pos : positionToFiles.keySet()) {
-                    log("  " + pos + " : " + positionToFiles.get(pos).get(0).getFileName());
-                }
-            }
-            
-            log("\nTotal files checked: " + positionToFiles.values()
-                .stream()
-                .mapToInt(List::size)
-                .sum());
-            
-        } catch (IOException e) {
-            log("Error accessing directory");
-            e.printStackTrace();
+    private ScanOptions currentScanOptions() {
+        if (!recursiveCheckBox.isSelected()) {
+            return ScanOptions.TOP_LEVEL;
         }
+        return ScanOptions.recursive(perDirectoryCheckBox.isSelected());
     }
 
-    private static class PositionEntry {
-        Path path;
-        double[] position;
-        
-        PositionEntry(Path path, double[] position) {
-            this.path = path;
-            this.position = position;
+    // Asks for a change plan file to write (dry run) or to apply, null if cancelled
+    private Path choosePlanFile(boolean save) {
+        JFileChooser fileChooser = createStyledFileChooser();
+        fileChooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
+        fileChooser.setDialogTitle(save ? "Save Change Plan" : "Select Change Plan");
+
+        String currentPath = directoryPathField.getText();
+        if (!currentPath.isEmpty() && new File(currentPath).exists()) {
+            fileChooser.setCurrentDirectory(new File(currentPath));
+        }
+        if (save) {
+            fileChooser.setSelectedFile(new File("changes.plan"));
         }
-    }
 
-    private void log(String message) {
-        SwingUtilities.invokeLater(() -> {
-            logArea.append(message + "\n");
-            logArea.setCaretPosition(logArea.getDocument().getLength());
-        });
+        int result = save ? fileChooser.showSaveDialog(frame) : fileChooser.showOpenDialog(frame);
+        if (result != JFileChooser.APPROVE_OPTION) {
+            return null;
+        }
+        return fileChooser.getSelectedFile().toPath();
     }
 
     private JFileChooser createStyledFileChooser() {
@@ -757,6 +806,11 @@ public class JsonUpdater {
     }
 
     public static void main(String[] args) {
+        // Any arguments select the headless command line mode
+        if (args.length > 0) {
+            JsonUpdaterCli.main(args);
+            return;
+        }
         SwingUtilities.invokeLater(() -> new JsonUpdater());
     }
 }
\ No newline at end of file
@@ -0,0 +1,323 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Headless entry point running the same {@link TeleportEngine} operations as the
+ * Swing window. Never touches AWT, so it works on servers without a display.
+ *
+ * <pre>
+ * java -cp teleport-renamer.jar JsonUpdaterCli --mode range --dir /data/world1 --range 40
+ * </pre>
+ */
+public class JsonUpdaterCli {
+    private static final int DEFAULT_PORT = 8080;
+
+    private static final String USAGE =
+        "Usage: JsonUpdaterCli --mode <rename|range|duplicates|watch|export|nearest> --dir <directory> [--dir ...]\n"
+      + "                      [--base <base name>] [--range <units>] [--metric <xz|xyz|box:X,Y,Z>]\n"
+      + "                      [--point <x,y,z>] [--count <n>] [--threads <n>] [--plan <file>]\n"
+      + "                      [--recursive] [--max-depth <n>] [--glob <pattern>] [--per-directory]\n"
+      + "                      [--keeper <first|oldest|lowest-number|centroid>] [--metrics <directory>]\n"
+      + "                      [--io-threads <n>]\n"
+      + "       JsonUpdaterCli --mode <range|duplicates> --snapshot <file> [--plan <file>]\n"
+      + "       JsonUpdaterCli --mode apply --plan <file>\n"
+      + "       JsonUpdaterCli --mode serve [--port <n>] [--bind <address>] [--plan-dir <directory>]\n"
+      + "                      [--threads <n>] [--io-threads <n>]\n"
+      + "\n"
+      + "  --mode       rename      rename files to <base>_<n>.json (requires --base)\n"
+      + "               range       delete files close to another under --metric\n"
+      + "               duplicates  delete files with exactly the same position\n"
+      + "               watch       keep watching --dir and flag new files that collide with a\n"
+      + "                           known position (exact or within --range), until stopped\n"
+      + "               export      write the positions under --dir to the --snapshot file\n"
+      + "               nearest     list the --count files nearest to --point\n"
+      + "               apply       carry out a change plan written by an earlier --plan run\n"
+      + "               serve       answer range, duplicates and rename jobs over HTTP until\n"
+      + "                           stopped, keeping parsed positions in memory between jobs\n"
+      + "  --dir        directory to process, may be given more than once\n"
+      + "  --base       base name for renamed files\n"
+      + "  --range      distance for the range check (default 40)\n"
+      + "  --metric     range/watch: xz compares distance on the X/Z plane (default), xyz also\n"
+      + "               counts height, box:X,Y,Z compares each axis with its own tolerance\n"
+      + "               (\"*\" ignores an axis); nearest: the axes the distance covers\n"
+      + "  --point      nearest: the position to search from\n"
+      + "  --count      nearest: how many files to list (default 1)\n"
+      + "  --keeper     range: files kept first in each cluster of close positions: first by path\n"
+      + "               (default), oldest modification time, lowest number in the name, or\n"
+      + "               closest to the cluster centre\n"
+      + "  --threads    parser threads (default: number of cores)\n"
+      + "  --io-threads threads deleting and rewriting files (default " + TeleportEngine.DEFAULT_IO_THREADS + ")\n"
+      + "  --recursive  range/duplicates: include files in subdirectories\n"
+      + "  --max-depth  how many subdirectory levels to include (implies --recursive)\n"
+      + "  --glob       file name pattern for range/duplicates (default *.json)\n"
+      + "  --per-directory  compare files only with files in the same folder\n"
+      + "  --quarantine watch: rename colliding files to <name>.collision instead of only flagging\n"
+      + "  --snapshot   export: file to write; range/duplicates: check this snapshot instead of\n"
+      + "               the files (reports only, changes go to --plan if given)\n"
+      + "  --metrics    write each run's stage counters and latencies as JSON into this directory\n"
+      + "  --plan       dry run: write the planned changes to this file instead of making them;\n"
+      + "               with --mode apply, the plan to carry out\n"
+      + "  --port       serve: port to listen on (default " + DEFAULT_PORT + ")\n"
+      + "  --bind       serve: address to listen on (default 127.0.0.1, this machine only)\n"
+      + "  --plan-dir   serve: directory the plans named by jobs' plan parameter go to\n"
+      + "               (default plans)\n";
+
+    public static void main(String[] args) {
+        String mode = null;
+        String baseName = null;
+        double range = 40;
+        String metricId = "xz";
+        double[] point = null;
+        int count = 1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int ioThreads = TeleportEngine.DEFAULT_IO_THREADS;
+        List<String> directories = new ArrayList<>();
+        Path planFile = null;
+        Path snapshotFile = null;
+        Path metricsDirectory = null;
+        int maxDepth = 0;
+        String glob = ScanOptions.DEFAULT_GLOB;
+        boolean perDirectory = false;
+        boolean quarantine = false;
+        KeeperPolicy keeper = KeeperPolicy.FIRST;
+        int port = DEFAULT_PORT;
+        String bindAddress = "127.0.0.1";
+        Path planDirectory = Paths.get("plans");
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--mode":
+                        mode = args[++i];
+                        break;
+                    case "--dir":
+                        directories.add(args[++i]);
+                        break;
+                    case "--base":
+                        baseName = args[++i];
+                        break;
+                    case "--range":
+                        range = Double.parseDouble(args[++i]);
+                        break;
+                    case "--metric":
+                        metricId = args[++i];
+                        break;
+                    case "--point":
+                        point = parsePoint(args[++i]);
+                        break;
+                    case "--count":
+                        count = Integer.parseInt(args[++i]);
+                        break;
+                    case "--keeper":
+                        keeper = KeeperPolicy.fromId(args[++i]);
+                        if (keeper == null) {
+                            fail("Unknown keeper policy: " + args[i]);
+                        }
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--io-threads":
+                        ioThreads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--recursive":
+                        maxDepth = Integer.MAX_VALUE;
+                        break;
+                    case "--max-depth":
+                        maxDepth = Integer.parseInt(args[++i]);
+                        break;
+                    case "--glob":
+                        glob = args[++i];
+                        break;
+                    case "--per-directory":
+                        perDirectory = true;
+                        break;
+                    case "--quarantine":
+                        quarantine = true;
+                        break;
+                    case "--metrics":
+                        metricsDirectory = Paths.get(args[++i]);
+                        break;
+                    case "--snapshot":
+                        snapshotFile = Paths.get(args[++i]);
+                        break;
+                    case "--plan":
+                        planFile = Paths.get(args[++i]);
+                        break;
+                    case "--port":
+                        port = Integer.parseInt(args[++i]);
+                        break;
+                    case "--bind":
+                        bindAddress = args[++i];
+                        break;
+                    case "--plan-dir":
+                        planDirectory = Paths.get(args[++i]);
+                        break;
+                    case "--help":
+                    case "-h":
+                        System.out.print(USAGE);
+                        return;
+                    default:
+                        fail("Unknown argument: " + args[i]);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            fail("Missing value for " + args[args.length - 1]);
+        } catch (NumberFormatException e) {
+            fail("Invalid number: " + e.getMessage());
+        }
+        if (threads <= 0 || ioThreads <= 0) {
+            fail("--threads and --io-threads must be positive");
+        }
+        ProximityMetric metric = null;
+        try {
+            metric = ProximityMetric.fromId(metricId, range);
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        if (metric == null) {
+            fail("Unknown metric: " + metricId);
+        }
+
+        if ("serve".equals(mode)) {
+            if (!directories.isEmpty()) {
+                fail("--mode serve takes the directory with each request, not --dir");
+            }
+            serve(new InetSocketAddress(bindAddress, port), threads, ioThreads, metricsDirectory, planDirectory);
+            return;
+        }
+
+        TeleportEngine engine = new TeleportEngine(System.out::println, threads);
+        engine.setMetricsDirectory(metricsDirectory);
+        engine.setIoThreads(ioThreads);
+
+        if ("apply".equals(mode)) {
+            if (planFile == null || !directories.isEmpty()) {
+                fail("--mode apply takes --plan and no --dir");
+            }
+            engine.applyPlanFile(planFile);
+            return;
+        }
+        if (snapshotFile != null && ("range".equals(mode) || "duplicates".equals(mode))) {
+            if (!directories.isEmpty()) {
+                fail("--snapshot replaces --dir for --mode " + mode);
+            }
+            if (range <= 0) {
+                fail("--range must be positive");
+            }
+            ScanOptions scanOptions = new ScanOptions(maxDepth, glob, perDirectory);
+            if (mode.equals("range")) {
+                engine.checkSnapshotRange(snapshotFile, metric, scanOptions, keeper, planFile);
+            } else {
+                engine.checkSnapshotDuplicates(snapshotFile, scanOptions, planFile);
+            }
+            return;
+        }
+        if (mode == null || directories.isEmpty()) {
+            fail("Both --mode and --dir are required");
+        }
+        if ((planFile != null || snapshotFile != null) && directories.size() > 1) {
+            fail("--plan and --snapshot work on a single --dir");
+        }
+        if (mode.equals("export") && snapshotFile == null) {
+            fail("--mode export requires --snapshot");
+        }
+        if (mode.equals("rename") && (baseName == null || baseName.isEmpty())) {
+            fail("--mode rename requires --base");
+        }
+        if (mode.equals("nearest") && (point == null || count <= 0)) {
+            fail("--mode nearest requires --point and a positive --count");
+        }
+        if (range <= 0) {
+            fail("--range must be positive");
+        }
+
+        if (maxDepth < 0) {
+            fail("--max-depth must not be negative");
+        }
+        ScanOptions scanOptions = new ScanOptions(maxDepth, glob, perDirectory);
+
+        if (mode.equals("watch")) {
+            watch(engine, directories, metric, quarantine);
+            return;
+        }
+        for (String directory : directories) {
+            switch (mode) {
+                case "rename":
+                    engine.processJsonFiles(directory, baseName, planFile);
+                    break;
+                case "range":
+                    engine.checkPositionRange(directory, metric, scanOptions, keeper, planFile);
+                    break;
+                case "duplicates":
+                    engine.checkDuplicatePositions(directory, scanOptions, planFile);
+                    break;
+                case "export":
+                    engine.exportSnapshot(directory, scanOptions, snapshotFile);
+                    break;
+                case "nearest":
+                    engine.findNearest(directory, scanOptions, point, count, metric);
+                    break;
+                default:
+                    fail("Unknown mode: " + mode);
+            }
+        }
+    }
+
+    // Watches every directory on its own thread until the process is stopped
+    private static void watch(TeleportEngine engine, List<String> directories, ProximityMetric metric,
+            boolean quarantine) {
+        List<PositionWatcher> watchers = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (String directory : directories) {
+            PositionWatcher watcher = engine.watchPositions(directory, metric, quarantine);
+            Thread thread = new Thread(watcher, "watch-" + directory);
+            watchers.add(watcher);
+            threads.add(thread);
+            thread.start();
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> watchers.forEach(PositionWatcher::stop)));
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Runs the HTTP service; its threads keep the process alive until it is stopped
+    private static void serve(InetSocketAddress address, int threads, int ioThreads, Path metricsDirectory,
+            Path planDirectory) {
+        TeleportService service = new TeleportService(threads, ioThreads, metricsDirectory, planDirectory,
+            System.out::println);
+        try {
+            service.start(address);
+        } catch (IOException e) {
+            System.err.println("Could not listen on " + address + ": " + e.getMessage());
+            System.exit(1);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(service::stop));
+    }
+
+    // "x,y,z" as given to --point
+    private static double[] parsePoint(String value) {
+        String[] parts = value.split(",");
+        if (parts.length != 3) {
+            fail("--point takes x,y,z");
+        }
+        return new double[] {Double.parseDouble(parts[0].trim()), Double.parseDouble(parts[1].trim()),
+            Double.parseDouble(parts[2].trim())};
+    }
+
+    private static void fail(String message) {
+        System.err.println(message);
+        System.err.print(USAGE);
+        System.exit(2);
+    }
+}
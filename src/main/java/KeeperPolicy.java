@@ -0,0 +1,35 @@
+/**
+ * Which files of a cluster of close positions the range check prefers to
+ * keep: files are kept in this order unless a kept file is within range.
+ * Every policy breaks ties by path order, so the same files always give the
+ * same result.
+ */
+enum KeeperPolicy {
+    FIRST("first", "First by path"),
+    OLDEST("oldest", "Oldest file"),
+    LOWEST_NUMBER("lowest-number", "Lowest number in name"),
+    CENTROID("centroid", "Closest to cluster centre");
+
+    final String id;       // command line value
+    private final String label;
+
+    KeeperPolicy(String id, String label) {
+        this.id = id;
+        this.label = label;
+    }
+
+    /** The policy with the given command line value, null if there is none. */
+    static KeeperPolicy fromId(String id) {
+        for (KeeperPolicy policy : values()) {
+            if (policy.id.equals(id)) {
+                return policy;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
@@ -0,0 +1,132 @@
+import javax.swing.JTextArea;
+import javax.swing.Timer;
+import javax.swing.text.BadLocationException;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Log sink for the Swing window. Worker threads only add lines to a pending
+ * ring of {@code maxLines} slots without taking a lock: each message claims
+ * the next sequence number and is stored in its slot, overwriting the oldest
+ * message when the ring is full. A Swing timer drains the ring on the EDT and
+ * appends its messages in a single update, so a tick never handles more than
+ * one ring, however fast lines arrive. The text area keeps at most
+ * {@code maxLines} lines, older lines are dropped from the top.
+ */
+class LogBuffer implements LogSink {
+    /** A message with the sequence number it was logged under. */
+    private static final class Entry {
+        final long sequence;
+        final String message;
+
+        Entry(long sequence, String message) {
+            this.sequence = sequence;
+            this.message = message;
+        }
+    }
+
+    private final JTextArea logArea;
+    private final int maxLines;
+    private final AtomicReferenceArray<Entry> slots;
+    private final AtomicLong tail = new AtomicLong(); // sequence number of the next message
+    private long head;                                // next sequence number to show, EDT only
+    private final Timer timer;
+
+    LogBuffer(JTextArea logArea, int maxLines, int flushMillis) {
+        this.logArea = logArea;
+        this.maxLines = maxLines;
+        this.slots = new AtomicReferenceArray<>(maxLines);
+        this.timer = new Timer(flushMillis, e -> flush());
+        this.timer.setCoalesce(true);
+    }
+
+    void start() {
+        timer.start();
+    }
+
+    @Override
+    public void log(String message) {
+        long sequence = tail.getAndIncrement();
+        int slot = (int) (sequence % maxLines);
+        Entry entry = new Entry(sequence, message);
+        Entry current;
+        do {
+            current = slots.get(slot);
+            // A thread that stalled after claiming its number never replaces a newer message
+            if (current != null && current.sequence > sequence) {
+                return;
+            }
+        } while (!slots.compareAndSet(slot, current, entry));
+    }
+
+    // Runs on the EDT
+    private void flush() {
+        long end = tail.get();
+        if (head == end) {
+            return;
+        }
+        // Messages pushed out of the ring since the last tick
+        long skipped = Math.max(0, end - maxLines - head);
+        head += skipped;
+        ArrayDeque<String> batch = new ArrayDeque<>();
+        for (; head < end; head++) {
+            Entry entry = slots.get((int) (head % maxLines));
+            if (entry == null || entry.sequence < head) {
+                break; // claimed but not stored yet, shown on a later tick
+            }
+            if (entry.sequence > head) {
+                skipped++; // overwritten while this tick read the ring
+            } else {
+                batch.addLast(entry.message);
+            }
+        }
+        if (batch.isEmpty() && skipped == 0) {
+            return;
+        }
+
+        // Only the newest maxLines of a burst can survive, skip the rest early
+        int batchLines = 0;
+        for (String message : batch) {
+            batchLines += countLines(message);
+        }
+        while (batchLines > maxLines && batch.size() > 1) {
+            batchLines -= countLines(batch.removeFirst());
+            skipped++;
+        }
+
+        StringBuilder text = new StringBuilder();
+        if (skipped > 0) {
+            text.append("... ").append(skipped).append(" earlier messages skipped ...\n");
+        }
+        for (String line : batch) {
+            text.append(line).append('\n');
+        }
+        logArea.append(text.toString());
+        trim();
+        logArea.setCaretPosition(logArea.getDocument().getLength());
+    }
+
+    private void trim() {
+        // The last line is the empty one after the trailing newline
+        int excess = logArea.getLineCount() - 1 - maxLines;
+        if (excess <= 0) {
+            return;
+        }
+        try {
+            logArea.getDocument().remove(0, logArea.getLineEndOffset(excess - 1));
+        } catch (BadLocationException e) {
+            logArea.setText("");
+        }
+    }
+
+    private static int countLines(String message) {
+        int lines = 1;
+        for (int i = 0; i < message.length(); i++) {
+            if (message.charAt(i) == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,6 @@
+/**
+ * Receives the progress and result lines written by {@link TeleportEngine}.
+ */
+interface LogSink {
+    void log(String message);
+}
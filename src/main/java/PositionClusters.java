@@ -0,0 +1,128 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Union-find over position indices. Every pair of positions within range is
+ * joined, so a cluster holds everything reachable through a chain of close
+ * pairs, no matter in which order the pairs were found.
+ */
+class PositionClusters {
+    private final int[] parent;
+    private final int[] size;
+
+    PositionClusters(int count) {
+        parent = new int[count];
+        size = new int[count];
+        for (int i = 0; i < count; i++) {
+            parent[i] = i;
+            size[i] = 1;
+        }
+    }
+
+    int find(int index) {
+        while (parent[index] != index) {
+            parent[index] = parent[parent[index]]; // path halving
+            index = parent[index];
+        }
+        return index;
+    }
+
+    void union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA == rootB) {
+            return;
+        }
+        // Attach the smaller tree so paths stay short
+        if (size[rootA] < size[rootB]) {
+            int swap = rootA;
+            rootA = rootB;
+            rootB = swap;
+        }
+        parent[rootB] = rootA;
+        size[rootA] += size[rootB];
+    }
+
+    /**
+     * Joins every pair of positions close under {@code metric}, using an index
+     * built {@link SpatialIndex#forClusters} over the same positions. The
+     * points of a clique cell are joined without comparing them, and two
+     * neighbouring cells stop comparing at their first close pair, so a dense
+     * cluster costs about one comparison per position instead of one per pair.
+     */
+    void joinClose(SpatialIndex index, PositionStore positions, ProximityMetric metric) {
+        double[] xs = positions.xs();
+        double[] ys = positions.ys();
+        double[] zs = positions.zs();
+        boolean cliques = index.cellsAreCliques();
+        for (int cell = 0; cell < index.cellCount(); cell++) {
+            int start = index.cellStart(cell);
+            int end = index.cellEnd(cell);
+            for (int slot = start + 1; slot < end; slot++) {
+                if (cliques) {
+                    union(index.pointAt(start), index.pointAt(slot));
+                } else {
+                    joinCells(index, slot - 1, slot, slot, end, false, xs, ys, zs, metric);
+                }
+            }
+            int from = cell;
+            index.forEachNearbyCell(cell, metric, other -> {
+                if (other > from) {
+                    joinCells(index, index.cellStart(from), index.cellEnd(from),
+                        index.cellStart(other), index.cellEnd(other), cliques, xs, ys, zs, metric);
+                }
+            });
+        }
+    }
+
+    // Joins close pairs between slots start..end and slots otherStart..otherEnd
+    private void joinCells(SpatialIndex index, int start, int end, int otherStart, int otherEnd,
+            boolean cliques, double[] xs, double[] ys, double[] zs, ProximityMetric metric) {
+        for (int slot = start; slot < end; slot++) {
+            int a = index.pointAt(slot);
+            for (int other = otherStart; other < otherEnd; other++) {
+                int b = index.pointAt(other);
+                if (find(a) == find(b)) {
+                    // Clique cells are joined as a whole, one joined pair settles both
+                    if (cliques) {
+                        return;
+                    }
+                    continue;
+                }
+                if (metric.matches(xs[a] - xs[b], ys[a] - ys[b], zs[a] - zs[b])) {
+                    union(a, b);
+                    if (cliques) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Clusters of two or more positions, each with its indices in ascending
+     * order, ordered by their lowest index.
+     */
+    List<int[]> clusters() {
+        int count = parent.length;
+        int[] clusterOf = new int[count];
+        int[] filled = new int[count];
+        List<int[]> clusters = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            clusterOf[i] = -1;
+        }
+        for (int i = 0; i < count; i++) {
+            int root = find(i);
+            if (size[root] < 2) {
+                continue;
+            }
+            if (clusterOf[root] < 0) {
+                clusterOf[root] = clusters.size();
+                clusters.add(new int[size[root]]);
+            }
+            int cluster = clusterOf[root];
+            clusters.get(cluster)[filled[cluster]++] = i;
+        }
+        return clusters;
+    }
+}
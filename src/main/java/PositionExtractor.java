@@ -0,0 +1,90 @@
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Reads the top-level "position" array of a teleport file with Jackson's
+ * streaming parser. Other fields are skipped without building nodes and parsing
+ * stops as soon as the three coordinates have been read. Files the streaming
+ * path cannot make sense of are handed to the regular tree parser. Both read
+ * the file through {@link FileBytes}.
+ */
+class PositionExtractor {
+    private final ObjectMapper mapper;
+    private final JsonFactory factory;
+
+    PositionExtractor(ObjectMapper mapper) {
+        this.mapper = mapper;
+        this.factory = mapper.getFactory();
+    }
+
+    /**
+     * Returns the position of the file as {x, y, z}, or null when the file has
+     * no usable "position" field.
+     */
+    double[] extract(Path path) throws IOException {
+        double[] position = new double[3];
+        try (JsonParser parser = FileBytes.createParser(factory, path)) {
+            int found = readPosition(parser, position);
+            if (found == 1) {
+                return position;
+            } else if (found == 0) {
+                return null;
+            }
+        } catch (JsonProcessingException e) {
+            // Malformed for the streaming path, let the tree parser decide
+        }
+        return extractFromTree(path);
+    }
+
+    // 1 = position read, 0 = no position field, -1 = unexpected shape
+    private static int readPosition(JsonParser parser, double[] out) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return -1;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (!"position".equals(field)) {
+                parser.skipChildren();
+                continue;
+            }
+            if (value != JsonToken.START_ARRAY) {
+                return -1;
+            }
+            for (int i = 0; i < 3; i++) {
+                JsonToken token = parser.nextToken();
+                if (token != JsonToken.VALUE_NUMBER_INT && token != JsonToken.VALUE_NUMBER_FLOAT) {
+                    return -1;
+                }
+                out[i] = parser.getDoubleValue();
+            }
+            return 1;
+        }
+        return 0;
+    }
+
+    private double[] extractFromTree(Path path) throws IOException {
+        JsonNode rootNode;
+        try (JsonParser parser = FileBytes.createParser(factory, path)) {
+            rootNode = mapper.readTree(parser);
+        }
+        if (rootNode == null || !rootNode.has("position")) {
+            return null;
+        }
+        JsonNode posNode = rootNode.get("position");
+        if (posNode.size() < 3) {
+            return null;
+        }
+        return new double[] {
+            posNode.get(0).asDouble(),
+            posNode.get(1).asDouble(),
+            posNode.get(2).asDouble()
+        };
+    }
+}
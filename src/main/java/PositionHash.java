@@ -0,0 +1,139 @@
+import java.util.Arrays;
+
+/**
+ * Groups points whose coordinates are equal at 0.01 precision. Coordinates are
+ * quantized to longs, each distinct key becomes a group held in primitive
+ * arrays, and an open-addressing table of group numbers finds it again. Points
+ * are numbered in the order they are added and the points of a group are
+ * chained through an int array in that order.
+ */
+class PositionHash {
+    private static final double SCALE = 100.0; // 0.01 precision
+
+    // Hash table slots: the group stored there, -1 if empty
+    private int[] slotGroup;
+    private int mask;
+
+    // Groups in the order they were first seen
+    private int groupCount;
+    private long[] groupX = new long[16];
+    private long[] groupY = new long[16];
+    private long[] groupZ = new long[16];
+    private int[] groupFirst = new int[16];
+    private int[] groupLast = new int[16];
+    private int[] groupSize = new int[16];
+
+    // Per point: the next point of the same group, -1 at the end
+    private int pointCount;
+    private int[] nextInGroup;
+
+    PositionHash(int expectedPoints) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedPoints * 2 - 1)) << 1;
+        allocateSlots(capacity);
+        nextInGroup = new int[Math.max(16, expectedPoints)];
+    }
+
+    /** Adds a point and returns the group it belongs to. */
+    int add(double x, double y, double z) {
+        long qx = Math.round(x * SCALE);
+        long qy = Math.round(y * SCALE);
+        long qz = Math.round(z * SCALE);
+
+        int slot = hash(qx, qy, qz) & mask;
+        int group;
+        while ((group = slotGroup[slot]) >= 0
+                && (groupX[group] != qx || groupY[group] != qy || groupZ[group] != qz)) {
+            slot = (slot + 1) & mask;
+        }
+
+        int point = pointCount++;
+        if (point == nextInGroup.length) {
+            nextInGroup = Arrays.copyOf(nextInGroup, point * 2);
+        }
+        nextInGroup[point] = -1;
+
+        if (group >= 0) {
+            nextInGroup[groupLast[group]] = point;
+            groupLast[group] = point;
+            groupSize[group]++;
+            return group;
+        }
+
+        group = newGroup(qx, qy, qz, point);
+        slotGroup[slot] = group;
+        if (groupCount * 2 > slotGroup.length) {
+            rehash(slotGroup.length << 1);
+        }
+        return group;
+    }
+
+    int pointCount() {
+        return pointCount;
+    }
+
+    int groupCount() {
+        return groupCount;
+    }
+
+    int groupSize(int group) {
+        return groupSize[group];
+    }
+
+    int firstInGroup(int group) {
+        return groupFirst[group];
+    }
+
+    int nextInGroup(int point) {
+        return nextInGroup[point];
+    }
+
+    /** The group's position formatted the way the duplicate check reports it. */
+    String groupKey(int group) {
+        return String.format("%.2f,%.2f,%.2f",
+            groupX[group] / SCALE, groupY[group] / SCALE, groupZ[group] / SCALE);
+    }
+
+    private int newGroup(long qx, long qy, long qz, int point) {
+        int group = groupCount++;
+        if (group == groupFirst.length) {
+            int size = group * 2;
+            groupX = Arrays.copyOf(groupX, size);
+            groupY = Arrays.copyOf(groupY, size);
+            groupZ = Arrays.copyOf(groupZ, size);
+            groupFirst = Arrays.copyOf(groupFirst, size);
+            groupLast = Arrays.copyOf(groupLast, size);
+            groupSize = Arrays.copyOf(groupSize, size);
+        }
+        groupX[group] = qx;
+        groupY[group] = qy;
+        groupZ[group] = qz;
+        groupFirst[group] = point;
+        groupLast[group] = point;
+        groupSize[group] = 1;
+        return group;
+    }
+
+    private void rehash(int capacity) {
+        allocateSlots(capacity);
+        for (int group = 0; group < groupCount; group++) {
+            int slot = hash(groupX[group], groupY[group], groupZ[group]) & mask;
+            while (slotGroup[slot] >= 0) {
+                slot = (slot + 1) & mask;
+            }
+            slotGroup[slot] = group;
+        }
+    }
+
+    private void allocateSlots(int capacity) {
+        slotGroup = new int[capacity];
+        Arrays.fill(slotGroup, -1);
+        mask = capacity - 1;
+    }
+
+    private static int hash(long qx, long qy, long qz) {
+        long h = qx * 0x9E3779B97F4A7C15L;
+        h ^= qy * 0xC2B2AE3D27D4EB4FL;
+        h ^= qz * 0x165667B19E3779F9L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
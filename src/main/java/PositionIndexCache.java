@@ -0,0 +1,135 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On-disk index of parsed positions, stored in the scanned directory. Each file
+ * is remembered with its size and modification time, so a later scan only has
+ * to parse files that are new or have changed since the index was written.
+ */
+class PositionIndexCache {
+    static final String INDEX_FILE = ".positions.idx";
+
+    private static final int MAGIC = 0x54504958; // "TPIX"
+    private static final int VERSION = 1;
+
+    private static class Entry {
+        final long size;
+        final long modified;
+        final double[] position; // null when the file has no position
+
+        Entry(long size, long modified, double[] position) {
+            this.size = size;
+            this.modified = modified;
+            this.position = position;
+        }
+    }
+
+    private final Path indexFile;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private boolean changed; // entries were put since the index was loaded or saved
+
+    private PositionIndexCache(Path directory) {
+        this.indexFile = directory.resolve(INDEX_FILE);
+    }
+
+    /** Loads the index of a directory, or an empty one if it is missing or unreadable. */
+    static PositionIndexCache load(Path directory) {
+        PositionIndexCache cache = new PositionIndexCache(directory);
+        if (!Files.isRegularFile(cache.indexFile)) {
+            return cache;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(cache.indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return cache;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                long size = in.readLong();
+                long modified = in.readLong();
+                double[] position = null;
+                if (in.readBoolean()) {
+                    position = new double[] {in.readDouble(), in.readDouble(), in.readDouble()};
+                }
+                cache.entries.put(name, new Entry(size, modified, position));
+            }
+        } catch (IOException e) {
+            // A damaged index is simply rebuilt by the next scan
+            cache.entries.clear();
+        }
+        return cache;
+    }
+
+    /** True if the index holds an entry for the file that matches its current size and mtime. */
+    boolean isFresh(Path file, BasicFileAttributes attrs) {
+        Entry entry = entries.get(file.getFileName().toString());
+        return entry != null
+            && entry.size == attrs.size()
+            && entry.modified == attrs.lastModifiedTime().toMillis();
+    }
+
+    /** The cached position of a file for which {@link #isFresh} returned true. */
+    double[] position(Path file) {
+        return entries.get(file.getFileName().toString()).position;
+    }
+
+    void put(Path file, BasicFileAttributes attrs, double[] position) {
+        entries.put(file.getFileName().toString(),
+            new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), position));
+        changed = true;
+    }
+
+    /**
+     * Drops entries for files that are no longer listed and writes the index,
+     * unless nothing changed since it was loaded or last saved.
+     */
+    void save(List<Path> listedFiles) throws IOException {
+        Map<String, Entry> retained = new HashMap<>();
+        for (Path file : listedFiles) {
+            String name = file.getFileName().toString();
+            Entry entry = entries.get(name);
+            if (entry != null) {
+                retained.put(name, entry);
+            }
+        }
+        if (!changed && retained.size() == entries.size()) {
+            return;
+        }
+        // An index kept in memory between scans must not keep entries of deleted files
+        entries.clear();
+        entries.putAll(retained);
+
+        Path tempFile = indexFile.resolveSibling(INDEX_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(retained.size());
+            for (Map.Entry<String, Entry> e : retained.entrySet()) {
+                Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.modified);
+                out.writeBoolean(entry.position != null);
+                if (entry.position != null) {
+                    out.writeDouble(entry.position[0]);
+                    out.writeDouble(entry.position[1]);
+                    out.writeDouble(entry.position[2]);
+                }
+            }
+        }
+        Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+        changed = false;
+    }
+}
@@ -0,0 +1,142 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Columnar binary copy of the positions found in a directory tree, for running
+ * checks again and again without parsing the JSON files. The file is memory
+ * mapped when opened and the coordinate columns are copied out in bulk, so
+ * loading a million positions costs a few milliseconds plus decoding the
+ * names.
+ *
+ * <p>Layout, big-endian like the position index:
+ * <pre>
+ * int      magic "TPSS", version, count, reserved
+ * double   x[count], y[count], z[count]
+ * int      stringEnd[count + 1]   end of each string in the string table
+ * byte     strings[]              UTF-8 file paths relative to the root, then the root
+ * </pre>
+ */
+class PositionSnapshot {
+    private static final int MAGIC = 0x54505353; // "TPSS"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+
+    private final Path root;
+    private final int count;
+    private final ByteBuffer data;
+    private final int stringEndOffset;
+    private final int stringsOffset;
+
+    private PositionSnapshot(int count, ByteBuffer data, int stringEndOffset, int stringsOffset) {
+        this.count = count;
+        this.data = data;
+        this.stringEndOffset = stringEndOffset;
+        this.stringsOffset = stringsOffset;
+        this.root = Paths.get(string(count));
+    }
+
+    /** Writes the positions of {@code paths}, which must all lie below {@code root}. */
+    static void write(Path file, Path root, Path[] paths, double[] xs, double[] ys, double[] zs, int count)
+            throws IOException {
+        Path absoluteRoot = root.toAbsolutePath().normalize();
+        byte[][] strings = new byte[count + 1][];
+        for (int i = 0; i < count; i++) {
+            Path relative = absoluteRoot.relativize(paths[i].toAbsolutePath().normalize());
+            strings[i] = relative.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        strings[count] = absoluteRoot.toString().getBytes(StandardCharsets.UTF_8);
+
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            out.writeInt(0);
+            for (double[] column : new double[][] {xs, ys, zs}) {
+                for (int i = 0; i < count; i++) {
+                    out.writeDouble(column[i]);
+                }
+            }
+            int end = 0;
+            for (byte[] string : strings) {
+                end += string.length;
+                out.writeInt(end);
+            }
+            for (byte[] string : strings) {
+                out.write(string);
+            }
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Maps a snapshot file. */
+    static PositionSnapshot open(Path file) throws IOException {
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot too large: " + file);
+            }
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (data.limit() < HEADER_BYTES || data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+            throw new IOException("Not a position snapshot: " + file);
+        }
+        int count = data.getInt(8);
+        long stringEndOffset = HEADER_BYTES + 24L * count;
+        long stringsOffset = stringEndOffset + 4L * (count + 1);
+        if (count < 0 || stringsOffset > data.limit()
+                || stringsOffset + data.getInt((int) stringEndOffset + 4 * count) != data.limit()) {
+            throw new IOException("Damaged position snapshot: " + file);
+        }
+        return new PositionSnapshot(count, data, (int) stringEndOffset, (int) stringsOffset);
+    }
+
+    /** The directory the snapshot was taken of. */
+    Path root() {
+        return root;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /** Copies the x, y and z columns into arrays of at least {@link #size()} elements. */
+    void copyColumns(double[] xs, double[] ys, double[] zs) {
+        double[][] columns = {xs, ys, zs};
+        for (int axis = 0; axis < 3; axis++) {
+            ByteBuffer column = data.duplicate();
+            column.position(HEADER_BYTES + axis * 8 * count);
+            column.asDoubleBuffer().get(columns[axis], 0, count);
+        }
+    }
+
+    /** Absolute path of the file at {@code index}. */
+    Path path(int index) {
+        return root.resolve(string(index));
+    }
+
+    private String string(int index) {
+        int start = index == 0 ? 0 : data.getInt(stringEndOffset + 4 * (index - 1));
+        int end = data.getInt(stringEndOffset + 4 * index);
+        byte[] bytes = new byte[end - start];
+        slice(stringsOffset + start, bytes.length).get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private ByteBuffer slice(int offset, int length) {
+        ByteBuffer slice = data.duplicate();
+        slice.position(offset);
+        slice.limit(offset + length);
+        return slice;
+    }
+}
@@ -0,0 +1,138 @@
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Positions of a set of files laid out as columns: one array each for x, y
+ * and z, plus an int per position pointing into a path table. Checks walk the
+ * coordinates of thousands of positions at a time, and with the columns they
+ * read plain doubles in order instead of following a reference to a file
+ * object and another to its position array. Paths are only needed for the few
+ * files a check reports on.
+ *
+ * <p>Selections of a store share its path table, so splitting a tree into
+ * per-folder scopes copies coordinates but no paths. Paths of a snapshot are
+ * decoded from it on first use.
+ */
+final class PositionStore {
+    /** Paths by id, shared by a store and its selections. Ids are never reused. */
+    private static final class PathTable {
+        private Path[] paths;
+        private int count;
+        private final PositionSnapshot snapshot; // decodes paths not yet in the array, may be null
+
+        PathTable(int capacity, PositionSnapshot snapshot) {
+            this.paths = new Path[Math.max(16, capacity)];
+            this.count = snapshot == null ? 0 : snapshot.size();
+            this.snapshot = snapshot;
+        }
+
+        synchronized Path get(int id) {
+            Path path = paths[id];
+            if (path == null) {
+                path = snapshot.path(id);
+                paths[id] = path;
+            }
+            return path;
+        }
+
+        // The id of a new entry after every existing one, so stores sharing the table keep their paths
+        synchronized int add(Path path) {
+            if (count == paths.length) {
+                paths = Arrays.copyOf(paths, paths.length * 2);
+            }
+            paths[count] = path;
+            return count++;
+        }
+    }
+
+    private final PathTable pathTable;
+    private double[] xs;
+    private double[] ys;
+    private double[] zs;
+    private int[] pathIds;
+    private int size;
+
+    PositionStore() {
+        this(16);
+    }
+
+    PositionStore(int capacity) {
+        this(new PathTable(capacity, null), Math.max(16, capacity));
+    }
+
+    private PositionStore(PathTable pathTable, int capacity) {
+        this.pathTable = pathTable;
+        this.xs = new double[capacity];
+        this.ys = new double[capacity];
+        this.zs = new double[capacity];
+        this.pathIds = new int[capacity];
+    }
+
+    /** Every position of a snapshot, the columns copied in bulk and the paths left undecoded. */
+    static PositionStore of(PositionSnapshot snapshot) {
+        int count = snapshot.size();
+        PositionStore store = new PositionStore(new PathTable(count, snapshot), Math.max(16, count));
+        snapshot.copyColumns(store.xs, store.ys, store.zs);
+        for (int i = 0; i < count; i++) {
+            store.pathIds[i] = i;
+        }
+        store.size = count;
+        return store;
+    }
+
+    /** Appends a file, giving its path a new id in the table shared with selections. */
+    void add(Path path, double[] position) {
+        if (size == xs.length) {
+            int capacity = size * 2;
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            zs = Arrays.copyOf(zs, capacity);
+            pathIds = Arrays.copyOf(pathIds, capacity);
+        }
+        xs[size] = position[0];
+        ys[size] = position[1];
+        zs[size] = position[2];
+        pathIds[size] = pathTable.add(path);
+        size++;
+    }
+
+    /** The positions at {@code indices}, in that order, sharing this store's paths. */
+    PositionStore select(int[] indices, int count) {
+        PositionStore selection = new PositionStore(pathTable, Math.max(16, count));
+        for (int i = 0; i < count; i++) {
+            int index = indices[i];
+            selection.xs[i] = xs[index];
+            selection.ys[i] = ys[index];
+            selection.zs[i] = zs[index];
+            selection.pathIds[i] = pathIds[index];
+        }
+        selection.size = count;
+        return selection;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Path path(int index) {
+        return pathTable.get(pathIds[index]);
+    }
+
+    /** A new array with the position at {@code index}. */
+    double[] position(int index) {
+        return new double[] {xs[index], ys[index], zs[index]};
+    }
+
+    /** The x column; only the first {@link #size()} elements are positions. */
+    double[] xs() {
+        return xs;
+    }
+
+    double[] ys() {
+        return ys;
+    }
+
+    double[] zs() {
+        return zs;
+    }
+}
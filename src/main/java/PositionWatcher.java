@@ -0,0 +1,253 @@
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the positions of a directory's .json files in memory and checks every
+ * file that is added or changed against them as soon as the file system
+ * reports it, without rescanning the directory. Positions live in a
+ * {@link SpatialIndex} over X/Z with cells as wide as the metric reaches, so a
+ * check only looks at nine cells, and files come and go from it one at a time.
+ *
+ * <p>A file that lands on the exact position of another (0.01 precision) or
+ * close to one under the {@link ProximityMetric} is flagged in the log. In quarantine mode
+ * it is also renamed to "&lt;name&gt;.collision", which takes it out of every
+ * later scan without deleting anything.
+ */
+class PositionWatcher implements Runnable {
+    private static final double SCALE = 100.0; // exact duplicate precision, as in PositionHash
+    // Positions that round to the same hundredth differ by less than this on each axis
+    private static final ProximityMetric SAME_HUNDREDTH = ProximityMetric.box(1 / SCALE, 1 / SCALE, 1 / SCALE);
+
+    private final TeleportEngine engine;
+    private final Path directory;
+    private final ProximityMetric metric;
+    private final double cellX;
+    private final double cellZ;
+    private final boolean quarantine;
+    private final LogSink log;
+    private final PositionExtractor extractor = new PositionExtractor(new ObjectMapper());
+
+    private final Map<Path, double[]> positions = new HashMap<>();
+    private final Map<Path, Integer> indices = new HashMap<>();
+    private final List<Path> paths = new ArrayList<>();   // by index in the spatial index
+    private SpatialIndex index;
+    private volatile WatchService watchService;
+    private volatile boolean stopped;
+
+    PositionWatcher(TeleportEngine engine, Path directory, ProximityMetric metric, boolean quarantine,
+            LogSink log) {
+        this.engine = engine;
+        this.directory = directory;
+        this.metric = metric;
+        this.cellX = cellSize(metric.reach(0));
+        this.cellZ = cellSize(metric.reach(2));
+        this.index = new SpatialIndex(new double[0], new double[0], new double[0], 0,
+            cellX, Double.POSITIVE_INFINITY, cellZ);
+        this.quarantine = quarantine;
+        this.log = log;
+    }
+
+    /** Watches until {@link #stop} is called or the directory goes away. */
+    @Override
+    public void run() {
+        try (WatchService service = FileSystems.getDefault().newWatchService()) {
+            watchService = service;
+            // Register first so nothing that lands during the initial scan is missed
+            directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            loadAll();
+            log.log("\nWatching " + directory + " (" + positions.size() + " positions, "
+                + metric + (quarantine ? ", quarantining collisions" : "") + ")");
+
+            while (!stopped) {
+                WatchKey key = service.poll(250, TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    continue;
+                }
+                // Handle each file once per burst of events
+                Set<Path> changed = new LinkedHashSet<>();
+                boolean overflow = false;
+                do {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            overflow = true;
+                        } else {
+                            changed.add(directory.resolve((Path) event.context()));
+                        }
+                    }
+                    if (!key.reset()) {
+                        log.log("Stopped watching " + directory + ": directory is no longer accessible");
+                        return;
+                    }
+                } while ((key = service.poll()) != null);
+
+                if (overflow) {
+                    log.log("Too many changes at once, rescanning " + directory);
+                    loadAll();
+                } else {
+                    for (Path path : changed) {
+                        if (path.getFileName().toString().endsWith(".json")) {
+                            fileChanged(path);
+                        }
+                    }
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // stop() closed the service
+        } catch (IOException e) {
+            log.log("Error watching directory: " + directory);
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.log("Stopped watching " + directory);
+    }
+
+    void stop() {
+        stopped = true;
+        WatchService service = watchService;
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void loadAll() throws IOException {
+        positions.clear();
+        indices.clear();
+        paths.clear();
+        positions.putAll(engine.readPositions(directory));
+        double[][] columns = new double[3][positions.size()];
+        for (Map.Entry<Path, double[]> entry : positions.entrySet()) {
+            int at = paths.size();
+            for (int axis = 0; axis < 3; axis++) {
+                columns[axis][at] = entry.getValue()[axis];
+            }
+            indices.put(entry.getKey(), at);
+            paths.add(entry.getKey());
+        }
+        index = new SpatialIndex(columns[0], columns[1], columns[2], paths.size(),
+            cellX, Double.POSITIVE_INFINITY, cellZ);
+    }
+
+    private void fileChanged(Path path) {
+        remove(path);
+        if (!Files.isRegularFile(path)) {
+            return; // deleted
+        }
+
+        double[] position;
+        try {
+            position = extractor.extract(path);
+        } catch (IOException e) {
+            // Most likely still being written, the next modify event retries it
+            return;
+        }
+        if (position == null) {
+            return;
+        }
+
+        String collision = findCollision(path, position);
+        if (collision == null) {
+            add(path, position);
+            return;
+        }
+
+        log.log(String.format("Collision: %s [%.2f, %.2f, %.2f] %s",
+            path.getFileName(), position[0], position[1], position[2], collision));
+        if (!quarantine) {
+            add(path, position);
+            return;
+        }
+        try {
+            Path target = path.resolveSibling(path.getFileName() + ".collision");
+            for (int i = 1; Files.exists(target); i++) {
+                target = path.resolveSibling(path.getFileName() + "." + i + ".collision");
+            }
+            Files.move(path, target);
+            log.log("  - Quarantined as " + target.getFileName());
+        } catch (IOException e) {
+            log.log("  - Error quarantining " + path.getFileName());
+            e.printStackTrace();
+            add(path, position);
+        }
+    }
+
+    // Describes the closest known file the position collides with, null if none
+    private String findCollision(Path path, double[] position) {
+        Path[] duplicate = {null};
+        index.forEachWithin(position[0], position[1], position[2], SAME_HUNDREDTH, (other, distanceSq) -> {
+            Path otherPath = paths.get(other);
+            if (duplicate[0] == null && sameQuantized(position, positions.get(otherPath))) {
+                duplicate[0] = otherPath;
+            }
+        });
+        if (duplicate[0] != null) {
+            return "duplicates " + duplicate[0].getFileName();
+        }
+
+        Path[] closest = {null};
+        double[] closestDistanceSq = {Double.MAX_VALUE};
+        index.forEachWithin(position[0], position[1], position[2], metric, (other, distanceSq) -> {
+            if (distanceSq < closestDistanceSq[0]) {
+                closest[0] = paths.get(other);
+                closestDistanceSq[0] = distanceSq;
+            }
+        });
+        if (closest[0] == null) {
+            return null;
+        }
+        return String.format("is within %.2f units of %s", Math.sqrt(closestDistanceSq[0]),
+            closest[0].getFileName());
+    }
+
+    private void add(Path path, double[] position) {
+        positions.put(path, position);
+        int at = index.add(position[0], position[1], position[2]);
+        indices.put(path, at);
+        while (paths.size() <= at) {
+            paths.add(null);
+        }
+        paths.set(at, path);
+    }
+
+    private void remove(Path path) {
+        Integer at = indices.remove(path);
+        if (at == null) {
+            return;
+        }
+        positions.remove(path);
+        index.remove(at);
+        paths.set(at, null);
+    }
+
+    private static boolean sameQuantized(double[] a, double[] b) {
+        return Math.round(a[0] * SCALE) == Math.round(b[0] * SCALE)
+            && Math.round(a[1] * SCALE) == Math.round(b[1] * SCALE)
+            && Math.round(a[2] * SCALE) == Math.round(b[2] * SCALE);
+    }
+
+    // One cell for an ignored axis; a zero tolerance still needs cells of some size, and the
+    // duplicate check needs cells at least a hundredth wide
+    private static double cellSize(double reach) {
+        return reach > 0 ? Math.max(reach, 1 / SCALE) : 1;
+    }
+}
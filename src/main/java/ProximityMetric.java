@@ -0,0 +1,142 @@
+/**
+ * When two positions count as close. A range on the X/Z plane ignores height,
+ * which suits flat worlds; a range in XYZ keeps teleports on stacked floors
+ * apart; a tolerance box bounds each axis on its own, for example a wide
+ * horizontal range but only a few blocks of height.
+ *
+ * <p>Ranges are compared on squared distances, so the hot loops never take a
+ * square root. {@link #distance} does, and is only meant for reporting.
+ */
+final class ProximityMetric {
+    private static final double[] ALL_AXES = {1, 1, 1};
+    private static final double[] XZ_AXES = {1, 0, 1};
+
+    private final String description;
+    private final double[] weights;  // 1 for axes in the distance, 0 for ignored ones
+    private final double rangeSq;    // spheres: close if the distance is below the range
+    private final double[] box;      // boxes: close if every axis is within its tolerance, null otherwise
+
+    private ProximityMetric(String description, double[] weights, double range, double[] box) {
+        this.description = description;
+        this.weights = weights;
+        this.rangeSq = range * range;
+        this.box = box;
+    }
+
+    /** Distance on the X/Z plane under {@code range}, height ignored. */
+    static ProximityMetric xz(double range) {
+        return new ProximityMetric("XZ distance under " + range, XZ_AXES, range, null);
+    }
+
+    /** Distance in all three axes under {@code range}. */
+    static ProximityMetric xyz(double range) {
+        return new ProximityMetric("XYZ distance under " + range, ALL_AXES, range, null);
+    }
+
+    /**
+     * Every axis difference at most its tolerance. An infinite tolerance
+     * ignores that axis, also for the distances the box reports.
+     */
+    static ProximityMetric box(double x, double y, double z) {
+        double[] tolerances = {x, y, z};
+        double[] weights = new double[3];
+        for (int axis = 0; axis < 3; axis++) {
+            weights[axis] = Double.isInfinite(tolerances[axis]) ? 0 : 1;
+        }
+        return new ProximityMetric("X/Y/Z differences within " + format(x) + "/" + format(y) + "/" + format(z),
+            weights, Double.POSITIVE_INFINITY, tolerances);
+    }
+
+    /**
+     * The metric named on the command line: "xz" or "xyz" with {@code range},
+     * or "box:X,Y,Z" with a tolerance per axis ("*" ignores an axis). Null if
+     * the name is not one of these.
+     */
+    static ProximityMetric fromId(String id, double range) {
+        if ("xz".equals(id)) {
+            return xz(range);
+        }
+        if ("xyz".equals(id)) {
+            return xyz(range);
+        }
+        if (id.startsWith("box:")) {
+            String[] parts = id.substring(4).split(",");
+            if (parts.length != 3) {
+                return null;
+            }
+            double[] tolerances = new double[3];
+            for (int axis = 0; axis < 3; axis++) {
+                String part = parts[axis].trim();
+                tolerances[axis] = part.equals("*") ? Double.POSITIVE_INFINITY : Double.parseDouble(part);
+                if (!(tolerances[axis] >= 0)) {
+                    return null;
+                }
+            }
+            return box(tolerances[0], tolerances[1], tolerances[2]);
+        }
+        return null;
+    }
+
+    /** True if positions this far apart on each axis are close. */
+    boolean matches(double dx, double dy, double dz) {
+        if (box != null) {
+            return Math.abs(dx) <= box[0] && Math.abs(dy) <= box[1] && Math.abs(dz) <= box[2];
+        }
+        return distanceSq(dx, dy, dz) < rangeSq;
+    }
+
+    /** Squared distance over the axes this metric looks at, for ranking positions. */
+    double distanceSq(double dx, double dy, double dz) {
+        return weights[0] * dx * dx + weights[1] * dy * dy + weights[2] * dz * dz;
+    }
+
+    double distance(double dx, double dy, double dz) {
+        return Math.sqrt(distanceSq(dx, dy, dz));
+    }
+
+    /**
+     * The largest difference on {@code axis} two close positions can have,
+     * infinite for an ignored axis. Spatial indexes size their cells by it.
+     */
+    double reach(int axis) {
+        if (box != null) {
+            return box[axis];
+        }
+        return weights[axis] == 0 ? Double.POSITIVE_INFINITY : Math.sqrt(rangeSq);
+    }
+
+    /** "XZ distance" or the like, naming the axes {@link #distance} covers. */
+    String distanceName() {
+        String axes = (uses(0) ? "X" : "") + (uses(1) ? "Y" : "") + (uses(2) ? "Z" : "");
+        return axes + " distance";
+    }
+
+    /** Weight of {@code axis} in the squared distance: 1, or 0 if it is ignored. */
+    double weight(int axis) {
+        return weights[axis];
+    }
+
+    /** True for a tolerance box, false for a range on the distance. */
+    boolean isBox() {
+        return box != null;
+    }
+
+    /** Squared range of a distance metric, below which positions are close. */
+    double rangeSq() {
+        return rangeSq;
+    }
+
+    /** True if the metric looks at {@code axis} at all. */
+    boolean uses(int axis) {
+        return weights[axis] != 0;
+    }
+
+    @Override
+    public String toString() {
+        return description;
+    }
+
+    private static String format(double tolerance) {
+        return Double.isInfinite(tolerance) ? "*" : String.valueOf(tolerance);
+    }
+}
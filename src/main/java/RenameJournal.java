@@ -0,0 +1,278 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of renames in flight in one directory. A rename writes
+ * the new file to a temp file and syncs it, journals the rename with the
+ * length and CRC-32 of the bytes written and syncs the journal, moves the temp
+ * file over the target with ATOMIC_MOVE, syncs the directory and only then
+ * deletes the source. Renames skipped because their target already exists
+ * are recorded too, and every finished rename gets a completion record.
+ *
+ * <p>After a crash {@link #recover} looks at the started renames without a
+ * completion record. A temp file that is still there means the move never
+ * happened, so it is removed and the source is left as it was; temp files of
+ * renames that never reached the journal are removed as well. The source is
+ * only deleted if the target holds exactly the bytes that were journalled; a
+ * target that merely exists may be an older file the rename never touched.
+ * Several threads may rename files of one directory at once and share its
+ * journal.
+ *
+ * <pre>
+ * B    /data/world1/old.json    /data/world1/base_100.json    /data/world1/.base_100.json.tmp    812    3735928559
+ * S    /data/world1/old2.json   /data/world1/base_101.json
+ * C    /data/world1/old.json
+ * </pre>
+ */
+class RenameJournal implements AutoCloseable {
+    static final String JOURNAL_FILE = ".rename-journal";
+
+    /** Length and CRC-32 of a file's contents. */
+    static final class Checksum {
+        final long length;
+        final long crc;
+
+        Checksum(long length, long crc) {
+            this.length = length;
+            this.crc = crc;
+        }
+    }
+
+    /** Writes through to a file and checksums the bytes as they go out. */
+    static final class ChecksumChannel implements GatheringByteChannel {
+        private final FileChannel out;
+        private final CRC32 crc = new CRC32();
+        private long length;
+
+        ChecksumChannel(FileChannel out) {
+            this.out = out;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int start = src.position();
+            int written = out.write(src);
+            update(src, start, written);
+            return written;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int count) throws IOException {
+            int[] starts = new int[count];
+            for (int i = 0; i < count; i++) {
+                starts[i] = srcs[offset + i].position();
+            }
+            long written = out.write(srcs, offset, count);
+            for (int i = 0; i < count; i++) {
+                ByteBuffer src = srcs[offset + i];
+                update(src, starts[i], src.position() - starts[i]);
+            }
+            return written;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) throws IOException {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return out.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        Checksum checksum() {
+            return new Checksum(length, crc.getValue());
+        }
+
+        private void update(ByteBuffer src, int start, int written) {
+            if (written <= 0) {
+                return;
+            }
+            ByteBuffer range = src.duplicate();
+            range.limit(start + written).position(start);
+            crc.update(range);
+            length += written;
+        }
+    }
+
+    private final Path journalFile;
+    private final FileChannel channel;
+
+    private RenameJournal(Path directory) throws IOException {
+        this.journalFile = directory.resolve(JOURNAL_FILE);
+        this.channel = FileChannel.open(journalFile, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    static RenameJournal open(Path directory) throws IOException {
+        return new RenameJournal(directory);
+    }
+
+    /** Temp file a rename to {@code target} is written to before it is moved into place. */
+    static Path tempFileFor(Path target) {
+        return target.resolveSibling("." + target.getFileName() + ".tmp");
+    }
+
+    // True for the temp file of a rename, not for the other hidden files a directory holds
+    private static boolean isTempFile(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith(".") && name.endsWith(".json.tmp");
+    }
+
+    /**
+     * Records a rename whose synced temp file has {@code written} as about to
+     * be moved, and syncs the journal. Must be called right before the move.
+     */
+    synchronized void started(ChangePlan.Change change, Checksum written) throws IOException {
+        write("B\t" + change.source + "\t" + change.target + "\t" + tempFileFor(change.target)
+            + "\t" + written.length + "\t" + written.crc + "\n");
+        channel.force(false);
+    }
+
+    /** Records a rename that was skipped without touching any file. */
+    synchronized void skipped(ChangePlan.Change change) throws IOException {
+        write("S\t" + change.source + "\t" + change.target + "\n");
+    }
+
+    /**
+     * Records a rename as finished. Not synced: a lost completion record only
+     * means recovery checks that rename again, which is harmless.
+     */
+    synchronized void complete(ChangePlan.Change change) throws IOException {
+        write("C\t" + change.source + "\n");
+    }
+
+    /** Closes the journal and removes it, every journalled rename has been handled. */
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+        Files.deleteIfExists(journalFile);
+    }
+
+    /** Closes the journal but leaves it on disk, so the next run recovers its renames. */
+    synchronized void keep() throws IOException {
+        channel.close();
+    }
+
+    private void write(String text) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /** Reads the file through a small heap buffer, never mapping it, and checksums its contents. */
+    static Checksum checksum(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        long length = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                crc.update(buffer.array(), 0, read);
+                length += read;
+                buffer.clear();
+            }
+        }
+        return new Checksum(length, crc.getValue());
+    }
+
+    /**
+     * Syncs a directory, so a move into it is on disk before the source of a
+     * rename is deleted. Platforms that cannot open directories, like Windows,
+     * make their renames durable on their own and skip this.
+     */
+    static void syncDirectory(Path directory) {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // Directories cannot be opened or synced here
+        }
+    }
+
+    /**
+     * Finishes or rolls back the renames a previous run left unfinished, removes
+     * stray temp files and then the journal. Does nothing if the directory has
+     * no journal.
+     */
+    static void recover(Path directory, LogSink log) throws IOException {
+        Path journalFile = directory.resolve(JOURNAL_FILE);
+        if (!Files.exists(journalFile)) {
+            return;
+        }
+
+        // Source -> record fields of every started rename without a completion record
+        Map<String, String[]> unfinished = new LinkedHashMap<>();
+        try (BufferedReader in = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields[0].equals("B") && fields.length == 6) {
+                    unfinished.put(fields[1], fields);
+                } else if ((fields[0].equals("C") && fields.length == 2)
+                        || (fields[0].equals("S") && fields.length == 3)) {
+                    unfinished.remove(fields[1]);
+                }
+                // Anything else is a record torn by the crash, it was never acted on
+            }
+        }
+
+        if (!unfinished.isEmpty()) {
+            log.log("Recovering " + unfinished.size() + " interrupted renames in " + directory);
+        }
+        for (String[] fields : unfinished.values()) {
+            Path source = Paths.get(fields[1]);
+            Path target = Paths.get(fields[2]);
+            Path temp = Paths.get(fields[3]);
+            if (!Files.exists(source)) {
+                // Finished apart from the completion record
+                Files.deleteIfExists(temp);
+            } else if (Files.exists(temp)) {
+                // The move never happened, the source is untouched
+                Files.delete(temp);
+                log.log("  - Rolled back rename: " + source.getFileName());
+            } else if (holds(target, Long.parseLong(fields[4]), Long.parseLong(fields[5]))) {
+                // The atomic move happened, only the source delete is missing
+                Files.delete(source);
+                log.log("  - Completed rename: " + source.getFileName() + " -> " + target.getFileName());
+            } else {
+                log.log("  - Left " + source.getFileName() + " in place, " + target.getFileName()
+                    + " is not its renamed copy");
+            }
+        }
+        // Temp files written before their rename was journalled
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, RenameJournal::isTempFile)) {
+            for (Path file : files) {
+                Files.delete(file);
+                log.log("  - Removed unfinished temp file: " + file.getFileName());
+            }
+        }
+        Files.delete(journalFile);
+    }
+
+    // True if the file exists with exactly the journalled contents
+    private static boolean holds(Path file, long length, long crc) throws IOException {
+        if (!Files.isRegularFile(file) || Files.size(file) != length) {
+            return false;
+        }
+        Checksum checksum = checksum(file);
+        return checksum.length == length && checksum.crc == crc;
+    }
+}
@@ -0,0 +1,148 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gives the files of a rename their sequence numbers without a shared counter.
+ * The sorted list is cut into one contiguous block per worker. Each worker
+ * checks the files of its block, the number of accepted files per block then
+ * fixes where every block's numbers start, and each worker numbers its own
+ * block from there. A file's number only depends on its place in the list and
+ * on which files before it were accepted, so any number of workers gives the
+ * same numbers.
+ */
+class RenameNumbering {
+    interface FileCheck {
+        boolean accept(Path path) throws IOException;
+    }
+
+    private final int workers;
+
+    RenameNumbering(int workers) {
+        this.workers = Math.max(1, workers);
+    }
+
+    /**
+     * Numbers for {@code files} counting up from {@code first} in list order,
+     * -1 for files the check rejects or fails on. Every checked file advances
+     * {@code task}; after a cancel the remaining files are left at -1.
+     */
+    int[] assign(List<Path> files, int first, FileCheck check, JsonLoader.ErrorHandler onError, TaskContext task) {
+        int count = files.size();
+        int blocks = Math.max(1, Math.min(workers, count));
+        int[] numbers = new int[count];
+        Arrays.fill(numbers, -1);
+        boolean[] accepted = new boolean[count];
+        int[] acceptedPerBlock = new int[blocks];
+
+        // Check every block, then number each one from the counts of the blocks before it
+        List<Callable<Void>> checks = new ArrayList<>();
+        for (int b = 0; b < blocks; b++) {
+            int block = b;
+            checks.add(() -> {
+                for (int i = blockStart(block, blocks, count); i < blockStart(block + 1, blocks, count); i++) {
+                    if (task.isCancelled()) {
+                        break;
+                    }
+                    try {
+                        if (check.accept(files.get(i))) {
+                            accepted[i] = true;
+                            acceptedPerBlock[block]++;
+                        }
+                    } catch (IOException e) {
+                        onError.onError(files.get(i), e);
+                    }
+                    task.advance(1);
+                }
+                return null;
+            });
+        }
+        runAll(checks, blocks);
+
+        List<Callable<Void>> numberings = new ArrayList<>();
+        int next = first;
+        for (int b = 0; b < blocks; b++) {
+            int block = b;
+            int blockFirst = next;
+            next += acceptedPerBlock[b];
+            numberings.add(() -> {
+                int number = blockFirst;
+                for (int i = blockStart(block, blocks, count); i < blockStart(block + 1, blocks, count); i++) {
+                    if (accepted[i]) {
+                        numbers[i] = number++;
+                    }
+                }
+                return null;
+            });
+        }
+        runAll(numberings, blocks);
+        return numbers;
+    }
+
+    private static int blockStart(int block, int blocks, int count) {
+        return (int) ((long) block * count / blocks);
+    }
+
+    // Runs the tasks inline for a single worker, otherwise one per pool thread
+    private static void runAll(List<Callable<Void>> tasks, int threads) {
+        if (threads == 1) {
+            for (Callable<Void> task : tasks) {
+                call(task);
+            }
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads, daemonThreads());
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (Callable<Void> task : tasks) {
+                results.add(pool.submit(task));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void call(Callable<Void> task) {
+        try {
+            task.call();
+        } catch (Exception e) {
+            throw rethrow(e);
+        }
+    }
+
+    // The tasks only throw unchecked exceptions, IOExceptions go to the error handler
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new IllegalStateException(e);
+    }
+
+    private static ThreadFactory daemonThreads() {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "rename-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,9 @@
+import java.nio.file.Path;
+
+/** Receives one row per file a position check decided on, next to the log text. */
+interface ResultSink {
+    enum Action { KEEP, DELETE }
+
+    /** {@code distance} is to the kept file of the group, NaN for the kept file itself. */
+    void result(Path file, double[] position, Action action, double distance);
+}
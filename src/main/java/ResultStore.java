@@ -0,0 +1,192 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Append-only store of check results in two temp files, so a run with millions
+ * of rows costs disk space instead of heap. Rows have a fixed size and point
+ * into a second file holding the UTF-8 file names, which lets any row be found
+ * by position. Rows are read back a page at a time and a few recently used
+ * full pages are kept in memory for the table scrolling over them.
+ *
+ * <pre>
+ * row      long nameOffset, int nameLength, int action, double x, y, z, distance
+ * </pre>
+ */
+class ResultStore implements ResultSink, AutoCloseable {
+    static final int PAGE_ROWS = 1024;
+
+    private static final int ROW_BYTES = 48;
+    private static final int WRITE_BUFFER_ROWS = 1024;
+    private static final int CACHED_PAGES = 32;
+
+    /** One decoded row. */
+    static class Row {
+        final String file;
+        final double x;
+        final double y;
+        final double z;
+        final Action action;
+        final double distance;
+
+        Row(String file, double x, double y, double z, Action action, double distance) {
+            this.file = file;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.action = action;
+            this.distance = distance;
+        }
+    }
+
+    private final FileChannel rows;
+    private final FileChannel names;
+    private final ByteBuffer rowBuffer = ByteBuffer.allocate(WRITE_BUFFER_ROWS * ROW_BYTES);
+    private ByteBuffer nameBuffer = ByteBuffer.allocate(64 * 1024);
+    private long flushedRows;
+    private long flushedNameBytes;
+    private int bufferedRows;
+    private final Map<Long, Row[]> pages = new LinkedHashMap<Long, Row[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Row[]> eldest) {
+            return size() > CACHED_PAGES;
+        }
+    };
+
+    ResultStore() throws IOException {
+        rows = openTemp("results-rows");
+        names = openTemp("results-names");
+    }
+
+    private static FileChannel openTemp(String prefix) throws IOException {
+        Path file = Files.createTempFile(prefix, ".bin");
+        return FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+            StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    @Override
+    public synchronized void result(Path file, double[] position, Action action, double distance) {
+        byte[] name = file.toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            if (rowBuffer.remaining() < ROW_BYTES || nameBuffer.remaining() < name.length) {
+                flush();
+            }
+            if (nameBuffer.capacity() < name.length) {
+                nameBuffer = ByteBuffer.allocate(name.length);
+            }
+            rowBuffer.putLong(flushedNameBytes + nameBuffer.position())
+                     .putInt(name.length)
+                     .putInt(action.ordinal())
+                     .putDouble(position[0])
+                     .putDouble(position[1])
+                     .putDouble(position[2])
+                     .putDouble(distance);
+            nameBuffer.put(name);
+            bufferedRows++;
+        } catch (IOException e) {
+            // The results view is a convenience, the log still has every result
+            e.printStackTrace();
+        }
+    }
+
+    synchronized long size() {
+        return flushedRows + bufferedRows;
+    }
+
+    /** Row {@code index}, read from its page. */
+    synchronized Row row(long index) throws IOException {
+        long page = index / PAGE_ROWS;
+        Row[] rowsOfPage = pages.get(page);
+        if (rowsOfPage == null) {
+            rowsOfPage = readRows(page * PAGE_ROWS, PAGE_ROWS);
+            if (rowsOfPage.length == PAGE_ROWS) {
+                pages.put(page, rowsOfPage); // a partial last page still grows
+            }
+        }
+        return rowsOfPage[(int) (index - page * PAGE_ROWS)];
+    }
+
+    /** Reads up to {@code count} consecutive rows starting at {@code first}, bypassing the page cache. */
+    synchronized Row[] readRows(long first, int count) throws IOException {
+        if (bufferedRows > 0 && first + count > flushedRows) {
+            flush();
+        }
+        int n = (int) Math.max(0, Math.min(count, flushedRows - first));
+        ByteBuffer rowBytes = ByteBuffer.allocate(n * ROW_BYTES);
+        readFully(rows, rowBytes, first * ROW_BYTES);
+        rowBytes.flip();
+        if (n == 0) {
+            return new Row[0];
+        }
+
+        // Names of consecutive rows are consecutive too, read them in one go
+        long nameStart = rowBytes.getLong(0);
+        long nameEnd = rowBytes.getLong((n - 1) * ROW_BYTES) + rowBytes.getInt((n - 1) * ROW_BYTES + 8);
+        ByteBuffer nameBytes = ByteBuffer.allocate((int) (nameEnd - nameStart));
+        readFully(names, nameBytes, nameStart);
+        byte[] nameArray = nameBytes.array();
+
+        Action[] actions = Action.values();
+        Row[] result = new Row[n];
+        for (int i = 0; i < n; i++) {
+            long offset = rowBytes.getLong();
+            int length = rowBytes.getInt();
+            Action action = actions[rowBytes.getInt()];
+            result[i] = new Row(new String(nameArray, (int) (offset - nameStart), length, StandardCharsets.UTF_8),
+                rowBytes.getDouble(), rowBytes.getDouble(), rowBytes.getDouble(), action, rowBytes.getDouble());
+        }
+        return result;
+    }
+
+    /** Drops every row. */
+    synchronized void clear() throws IOException {
+        rowBuffer.clear();
+        nameBuffer.clear();
+        bufferedRows = 0;
+        flushedRows = 0;
+        flushedNameBytes = 0;
+        rows.truncate(0);
+        names.truncate(0);
+        pages.clear();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        rows.close();
+        names.close();
+    }
+
+    private void flush() throws IOException {
+        rowBuffer.flip();
+        nameBuffer.flip();
+        writeFully(rows, rowBuffer, flushedRows * ROW_BYTES);
+        writeFully(names, nameBuffer, flushedNameBytes);
+        flushedRows += bufferedRows;
+        flushedNameBytes += nameBuffer.limit();
+        bufferedRows = 0;
+        rowBuffer.clear();
+        nameBuffer.clear();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Results file ended early");
+            }
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,454 @@
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JComboBox;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.table.AbstractTableModel;
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Table of the rows in a {@link ResultStore}. The table model only tells the
+ * table how many rows there are and reads the few that are painted, a page at
+ * a time, so scrolling through millions of results costs as much as showing a
+ * screenful. Sorting and filtering build an array of row numbers on a
+ * background thread; the stored rows are never loaded all at once. Sorting
+ * holds one long key per row, say four chars of the file name, and reads the
+ * next key only for rows still tied on every key so far.
+ *
+ * <p>Rows are appended by the engine while a check runs. A timer picks them up
+ * a few times per second: without a filter or sort they are simply added at
+ * the end, otherwise the row numbers are computed again.
+ */
+class ResultsView extends JPanel {
+    private static final long serialVersionUID = 1L;
+    private static final String[] COLUMNS = {"File", "Position", "Action", "Distance"};
+    private static final int FILE = 0;
+    private static final int POSITION = 1;
+    private static final int ACTION = 2;
+    private static final int REFRESH_MILLIS = 500;
+    private static final int FILTER_DELAY_MILLIS = 300;
+
+    private final ResultStore store;
+    private final ResultsModel model = new ResultsModel();
+    private final JTable table = new JTable(model);
+    private final JTextField filterField = new JTextField(20);
+    private final JComboBox<String> actionComboBox = new JComboBox<>(new String[] {"All", "Keep", "Delete"});
+    private final JLabel countLabel = new JLabel("0 rows");
+    private final JButton clearButton = new JButton("Clear");
+    private final ExecutorService viewThread = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "results-view");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Only touched on the EDT
+    private int sortColumn = -1;
+    private boolean ascending = true;
+    private int generation;      // bumped for every new view, stale computations are dropped
+    private boolean computing;
+    private long viewSourceRows; // store rows the current view was computed from
+
+    ResultsView(ResultStore store) {
+        super(new BorderLayout(5, 5));
+        this.store = store;
+
+        table.setFillsViewportHeight(true);
+        table.setAutoCreateRowSorter(false);
+        table.getColumnModel().getColumn(FILE).setPreferredWidth(400);
+        table.getColumnModel().getColumn(POSITION).setPreferredWidth(220);
+        table.getColumnModel().getColumn(ACTION).setPreferredWidth(70);
+        table.getTableHeader().addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int column = table.convertColumnIndexToModel(table.columnAtPoint(e.getPoint()));
+                if (column >= 0) {
+                    sortBy(column);
+                }
+            }
+        });
+        add(new JScrollPane(table), BorderLayout.CENTER);
+
+        JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 0));
+        filterPanel.setBorder(BorderFactory.createEmptyBorder(5, 0, 0, 0));
+        filterPanel.add(new JLabel("Filter:"));
+        filterPanel.add(filterField);
+        filterPanel.add(actionComboBox);
+        filterPanel.add(clearButton);
+        filterPanel.add(countLabel);
+        add(filterPanel, BorderLayout.SOUTH);
+
+        Timer filterTimer = new Timer(FILTER_DELAY_MILLIS, e -> recompute());
+        filterTimer.setRepeats(false);
+        filterField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                filterTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                filterTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                filterTimer.restart();
+            }
+        });
+        actionComboBox.addActionListener(e -> recompute());
+        clearButton.addActionListener(e -> clear());
+
+        Timer refreshTimer = new Timer(REFRESH_MILLIS, e -> refresh());
+        refreshTimer.setCoalesce(true);
+        refreshTimer.start();
+    }
+
+    /** Keeps Clear disabled while checks that append rows are running; call on the EDT. */
+    void setChecksRunning(boolean running) {
+        clearButton.setEnabled(!running);
+    }
+
+    /** Drops all results; called off the EDT, returns once the EDT has dropped them. */
+    void clear() {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            try {
+                SwingUtilities.invokeAndWait(this::clear);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (InvocationTargetException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        // The table lets go of the rows before the store drops them, and both happen on the
+        // EDT that paints them, so a paint never asks for a row the store no longer has
+        generation++;
+        computing = false;
+        viewSourceRows = 0;
+        model.setRows(null, 0);
+        try {
+            store.clear();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (isFiltered()) {
+            recompute();
+        }
+    }
+
+    // True if the table shows a view instead of the store rows in order
+    private boolean isFiltered() {
+        return sortColumn >= 0 || isNarrowed();
+    }
+
+    private boolean isNarrowed() {
+        return !filterField.getText().trim().isEmpty() || actionComboBox.getSelectedIndex() > 0;
+    }
+
+    // Picks up rows appended since the last tick
+    private void refresh() {
+        long size = store.size();
+        if (!isFiltered()) {
+            if (size != model.rowCount) {
+                model.setRows(null, (int) Math.min(size, Integer.MAX_VALUE));
+            }
+        } else if (size != viewSourceRows && !computing) {
+            recompute();
+        }
+        updateCountLabel(size);
+    }
+
+    private void sortBy(int column) {
+        if (column == sortColumn) {
+            ascending = !ascending;
+        } else {
+            sortColumn = column;
+            ascending = true;
+        }
+        for (int i = 0; i < COLUMNS.length; i++) {
+            String arrow = i != sortColumn ? "" : ascending ? " \u25B2" : " \u25BC";
+            table.getColumnModel().getColumn(table.convertColumnIndexToView(i)).setHeaderValue(COLUMNS[i] + arrow);
+        }
+        table.getTableHeader().repaint();
+        recompute();
+    }
+
+    // Starts computing the row numbers for the current filter and sort
+    private void recompute() {
+        int currentGeneration = ++generation;
+        if (!isFiltered()) {
+            computing = false;
+            model.setRows(null, (int) Math.min(store.size(), Integer.MAX_VALUE));
+            updateCountLabel(store.size());
+            return;
+        }
+
+        String text = filterField.getText().trim().toLowerCase(Locale.ROOT);
+        int actionIndex = actionComboBox.getSelectedIndex();
+        ResultSink.Action action = actionIndex == 0 ? null : ResultSink.Action.values()[actionIndex - 1];
+        int column = sortColumn;
+        boolean up = ascending;
+        long rows = store.size();
+        computing = true;
+        viewThread.execute(() -> {
+            int[] view;
+            try {
+                view = select(rows, text, action, column, up);
+            } catch (IOException e) {
+                e.printStackTrace();
+                view = new int[0];
+            }
+            int[] finalView = view;
+            SwingUtilities.invokeLater(() -> {
+                if (currentGeneration != generation) {
+                    return;
+                }
+                computing = false;
+                viewSourceRows = rows;
+                model.setRows(finalView, finalView.length);
+                updateCountLabel(store.size());
+            });
+        });
+    }
+
+    // Numbers of the first rows rows that match, in sort order
+    private int[] select(long rows, String text, ResultSink.Action action, int column, boolean up)
+            throws IOException {
+        boolean sorted = column >= 0;
+        int[] matches = new int[1024];
+        long[] keys = new long[sorted ? matches.length : 0];
+        boolean[] more = new boolean[keys.length];
+        int count = 0;
+        for (long first = 0; first < rows; first += ResultStore.PAGE_ROWS) {
+            ResultStore.Row[] page = store.readRows(first, (int) Math.min(ResultStore.PAGE_ROWS, rows - first));
+            for (int i = 0; i < page.length; i++) {
+                ResultStore.Row row = page[i];
+                if ((action == null || row.action == action)
+                        && (text.isEmpty() || row.file.toLowerCase(Locale.ROOT).contains(text))) {
+                    if (count == matches.length) {
+                        matches = Arrays.copyOf(matches, count * 2);
+                        keys = sorted ? Arrays.copyOf(keys, count * 2) : keys;
+                        more = sorted ? Arrays.copyOf(more, count * 2) : more;
+                    }
+                    if (sorted) {
+                        keys[count] = sortKey(row, column, 0, up);
+                        more[count] = hasNextKey(row, column, 0);
+                    }
+                    matches[count++] = (int) (first + i);
+                }
+            }
+        }
+        matches = Arrays.copyOf(matches, count);
+        if (!sorted) {
+            return matches;
+        }
+
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        int[] buffer = new int[count];
+        boolean[] needed = new boolean[count];
+        int[] tied = {0, count};   // from and to of each range of order tied on every key so far
+        int tiedCount = count > 1 ? 1 : 0;
+        for (int round = 0; tiedCount > 0; round++) {
+            if (round > 0) {
+                readKeys(matches, needed, column, round, up, keys, more);
+            }
+            int[] next = new int[16];
+            int nextCount = 0;
+            for (int range = 0; range < tiedCount; range++) {
+                int from = tied[2 * range];
+                int to = tied[2 * range + 1];
+                sortByKey(order, from, to, keys, buffer);
+                for (int start = from, end; start < to; start = end) {
+                    for (end = start + 1; end < to && keys[order[end]] == keys[order[start]]; end++) {
+                        // extend the run of equal keys
+                    }
+                    if (end - start < 2 || !more[order[start]]) {
+                        continue;
+                    }
+                    if (2 * nextCount + 2 > next.length) {
+                        next = Arrays.copyOf(next, next.length * 2);
+                    }
+                    next[2 * nextCount] = start;
+                    next[2 * nextCount + 1] = end;
+                    nextCount++;
+                    for (int i = start; i < end; i++) {
+                        needed[order[i]] = true;
+                    }
+                }
+            }
+            tied = next;
+            tiedCount = nextCount;
+        }
+
+        int[] view = new int[count];
+        for (int i = 0; i < count; i++) {
+            view[i] = matches[order[i]];
+        }
+        return view;
+    }
+
+    // Reads the keys of the next round for the matches flagged in needed, a page at a time
+    private void readKeys(int[] matches, boolean[] needed, int column, int round, boolean up,
+            long[] keys, boolean[] more) throws IOException {
+        ResultStore.Row[] page = new ResultStore.Row[0];
+        long pageFirst = -1;
+        for (int i = 0; i < matches.length; i++) {
+            if (!needed[i]) {
+                continue;
+            }
+            needed[i] = false;
+            long first = matches[i] / ResultStore.PAGE_ROWS * (long) ResultStore.PAGE_ROWS;
+            if (first != pageFirst) {
+                page = store.readRows(first, ResultStore.PAGE_ROWS);
+                pageFirst = first;
+            }
+            int at = (int) (matches[i] - first);
+            if (at >= page.length) {
+                // Cleared meanwhile, the view is dropped anyway
+                more[i] = false;
+                continue;
+            }
+            keys[i] = sortKey(page[at], column, round, up);
+            more[i] = hasNextKey(page[at], column, round);
+        }
+    }
+
+    // Stable merge sort of order[from, to) by keys[order[i]]
+    private static void sortByKey(int[] order, int from, int to, long[] keys, int[] buffer) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        sortByKey(order, from, middle, keys, buffer);
+        sortByKey(order, middle, to, keys, buffer);
+        if (keys[order[middle - 1]] <= keys[order[middle]]) {
+            return;
+        }
+        System.arraycopy(order, from, buffer, from, to - from);
+        for (int i = from, a = from, b = middle; i < to; i++) {
+            order[i] = b >= to || (a < middle && keys[buffer[a]] <= keys[buffer[b]]) ? buffer[a++] : buffer[b++];
+        }
+    }
+
+    // Key of a row in one round of sorting by column; rows tied on every round compare equal
+    private static long sortKey(ResultStore.Row row, int column, int round, boolean up) {
+        long key;
+        switch (column) {
+            case FILE:
+                // Four chars per round, compared like String.compareTo
+                key = 0;
+                for (int i = 4 * round; i < 4 * round + 4; i++) {
+                    key = key << 16 | (i < row.file.length() ? row.file.charAt(i) : 0);
+                }
+                key ^= Long.MIN_VALUE;
+                break;
+            case POSITION:
+                key = sortable(round == 0 ? row.x : round == 1 ? row.y : row.z);
+                break;
+            case ACTION:
+                key = row.action.ordinal();
+                break;
+            default:
+                // NaN, the distance of kept files, sorts after every number
+                key = sortable(row.distance);
+                break;
+        }
+        return up ? key : ~key;
+    }
+
+    // True if rows with the same key in this round may still differ in a later one
+    private static boolean hasNextKey(ResultStore.Row row, int column, int round) {
+        if (column == FILE) {
+            // A name that fills this round's chars still ties with longer ones
+            return row.file.length() >= 4 * round + 4;
+        }
+        return column == POSITION && round < 2;
+    }
+
+    // A long ordered like Double.compare orders the values
+    private static long sortable(double value) {
+        long bits = Double.doubleToLongBits(value);
+        return bits ^ (bits >> 63 & Long.MAX_VALUE);
+    }
+
+    private void updateCountLabel(long storeRows) {
+        countLabel.setText(isNarrowed() ? model.rowCount + " of " + storeRows + " rows" : storeRows + " rows");
+    }
+
+    /** Model over either the store rows in order or the rows listed in a view. */
+    private class ResultsModel extends AbstractTableModel {
+        private static final long serialVersionUID = 1L;
+
+        private int[] view;
+        private int rowCount;
+
+        void setRows(int[] view, int rowCount) {
+            int previous = this.rowCount;
+            boolean appended = this.view == null && view == null && rowCount > previous;
+            this.view = view;
+            this.rowCount = rowCount;
+            if (appended) {
+                fireTableRowsInserted(previous, rowCount - 1);
+            } else {
+                fireTableDataChanged();
+            }
+        }
+
+        @Override
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Object getValueAt(int rowIndex, int columnIndex) {
+            if (rowIndex < 0 || rowIndex >= rowCount) {
+                return "";
+            }
+            ResultStore.Row row;
+            try {
+                row = store.row(view == null ? rowIndex : view[rowIndex]);
+            } catch (IOException e) {
+                return ""; // unreadable, painted again on the next refresh
+            }
+            switch (columnIndex) {
+                case FILE:
+                    return row.file;
+                case POSITION:
+                    return String.format("[%.2f, %.2f, %.2f]", row.x, row.y, row.z);
+                case ACTION:
+                    return row.action == ResultSink.Action.KEEP ? "Keep" : "Delete";
+                default:
+                    return Double.isNaN(row.distance) ? "" : String.format("%.2f", row.distance);
+            }
+        }
+    }
+}
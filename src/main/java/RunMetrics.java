@@ -0,0 +1,142 @@
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms of one engine operation, per pipeline stage.
+ * Like {@link TaskContext}, the run is bound to the thread that started it and
+ * reached through {@link #current()}; stages that hand work to other threads
+ * fetch it first and record from there. Outside a run, recording is a no-op.
+ */
+class RunMetrics {
+    enum Stage {
+        LIST("list"),
+        PARSE("parse"),
+        COMPARE("compare"),
+        WRITE("write"),
+        DELETE("delete");
+
+        final String id;
+
+        Stage(String id) {
+            this.id = id;
+        }
+    }
+
+    private static class StageMetrics {
+        final AtomicLong items = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final LatencyHistogram latency = new LatencyHistogram();
+    }
+
+    private static final ThreadLocal<RunMetrics> CURRENT = new ThreadLocal<>();
+    private static final RunMetrics NONE = new RunMetrics("", false);
+
+    final String operation;
+    private final boolean enabled;
+    private final long startMillis = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private volatile long durationNanos = -1;
+    private final Map<Stage, StageMetrics> stages = new EnumMap<>(Stage.class);
+
+    private RunMetrics(String operation, boolean enabled) {
+        this.operation = operation;
+        this.enabled = enabled;
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, new StageMetrics());
+        }
+    }
+
+    /** Starts measuring an operation on the calling thread. */
+    static RunMetrics start(String operation) {
+        RunMetrics metrics = new RunMetrics(operation, true);
+        CURRENT.set(metrics);
+        return metrics;
+    }
+
+    /** The run of the calling thread, or one that records nothing. */
+    static RunMetrics current() {
+        RunMetrics metrics = CURRENT.get();
+        return metrics != null ? metrics : NONE;
+    }
+
+    /** Stops the clock and unbinds the run from the calling thread. */
+    void finish() {
+        durationNanos = System.nanoTime() - startNanos;
+        if (CURRENT.get() == this) {
+            CURRENT.remove();
+        }
+    }
+
+    /** Records one sample of {@code stage} that started at {@code startNanos} and handled {@code items}. */
+    void record(Stage stage, long startNanos, long items) {
+        if (!enabled) {
+            return;
+        }
+        StageMetrics metrics = stages.get(stage);
+        metrics.latency.record(System.nanoTime() - startNanos);
+        metrics.items.addAndGet(items);
+    }
+
+    void recordError(Stage stage) {
+        if (enabled) {
+            stages.get(stage).errors.incrementAndGet();
+        }
+    }
+
+    /** Table of the stages that did any work, for the log. */
+    String summary() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%n=== Metrics: %s (%.1f ms) ===%n", operation, durationNanos / 1e6));
+        text.append(String.format("%-8s %9s %9s %7s %10s %9s %9s %9s %9s%n",
+            "stage", "items", "samples", "errors", "total ms", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+        for (Map.Entry<Stage, StageMetrics> entry : stages.entrySet()) {
+            StageMetrics metrics = entry.getValue();
+            LatencyHistogram latency = metrics.latency;
+            if (latency.count() == 0 && metrics.errors.get() == 0) {
+                continue;
+            }
+            text.append(String.format("%-8s %9d %9d %7d %10.1f %9.3f %9.3f %9.3f %9.3f%n",
+                entry.getKey().id, metrics.items.get(), latency.count(), metrics.errors.get(),
+                latency.totalNanos() / 1e6, latency.percentileNanos(50) / 1e6,
+                latency.percentileNanos(90) / 1e6, latency.percentileNanos(99) / 1e6,
+                latency.maxNanos() / 1e6));
+        }
+        return text.toString();
+    }
+
+    /** Writes the run as "&lt;operation&gt;-&lt;start time&gt;.json" into {@code directory}, returns the file. */
+    Path writeJson(Path directory) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        ObjectNode root = mapper.createObjectNode();
+        root.put("operation", operation);
+        root.put("startedAt", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date(startMillis)));
+        root.put("durationMillis", durationNanos / 1e6);
+        ObjectNode stageNodes = root.putObject("stages");
+        for (Map.Entry<Stage, StageMetrics> entry : stages.entrySet()) {
+            StageMetrics metrics = entry.getValue();
+            LatencyHistogram latency = metrics.latency;
+            ObjectNode node = stageNodes.putObject(entry.getKey().id);
+            node.put("items", metrics.items.get());
+            node.put("samples", latency.count());
+            node.put("errors", metrics.errors.get());
+            node.put("totalMillis", latency.totalNanos() / 1e6);
+            node.put("p50Millis", latency.percentileNanos(50) / 1e6);
+            node.put("p90Millis", latency.percentileNanos(90) / 1e6);
+            node.put("p99Millis", latency.percentileNanos(99) / 1e6);
+            node.put("maxMillis", latency.maxNanos() / 1e6);
+        }
+
+        String name = operation.toLowerCase().replaceAll("[^a-z0-9]+", "-") + "-"
+            + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date(startMillis)) + ".json";
+        Path file = directory.resolve(name);
+        mapper.writerWithDefaultPrettyPrinter().writeValue(file.toFile(), root);
+        return file;
+    }
+}
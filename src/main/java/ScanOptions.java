@@ -0,0 +1,24 @@
+/**
+ * Which files a position check looks at below the selected directory and
+ * whether it compares them across the whole tree or folder by folder.
+ */
+class ScanOptions {
+    static final String DEFAULT_GLOB = "*.json";
+
+    /** Only the .json files directly in the selected directory. */
+    static final ScanOptions TOP_LEVEL = new ScanOptions(0, DEFAULT_GLOB, false);
+
+    final int maxDepth;          // 0 = selected directory only
+    final String glob;           // matched against file names
+    final boolean perDirectory;  // compare files only with files in the same folder
+
+    ScanOptions(int maxDepth, String glob, boolean perDirectory) {
+        this.maxDepth = maxDepth;
+        this.glob = glob;
+        this.perDirectory = perDirectory;
+    }
+
+    static ScanOptions recursive(boolean perDirectory) {
+        return new ScanOptions(Integer.MAX_VALUE, DEFAULT_GLOB, perDirectory);
+    }
+}
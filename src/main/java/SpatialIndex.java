@@ -0,0 +1,553 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * Uniform hash grid over the positions, shared by every proximity query. Each
+ * axis gets its own cell size; an axis the metric ignores gets a single layer
+ * of cells. With the cells sized to a metric's reach, every position close to
+ * a given one lies in the same cell or a neighbouring one, so a radius query
+ * only touches a 3x3x3 block of cells instead of every other position.
+ * Nearest-neighbour queries search outwards one shell of cells at a time and
+ * stop as soon as no unseen cell can hold anything closer.
+ *
+ * <p>The coordinates are copied into cell order, so the points of a cell are
+ * consecutive in each column and one loop computes and compares their
+ * distances without a buffer in between. Queries keep no state in the index,
+ * so several threads may query one index at once.
+ *
+ * <p>An index built {@link #forClusters} has cells small enough that any two
+ * positions in one cell are close, so clustering can join a whole cell at once
+ * and only has to compare positions across neighbouring cells.
+ *
+ * <p>Points can be added and removed after the index is built, for a watcher
+ * that follows a directory. A removed point leaves a hole in its cell; added
+ * points are checked one by one until enough pile up to lay the cells out
+ * again. The cell accessors used by clustering only see the cells as they
+ * were laid out, so they are for indexes nothing was added to or removed from.
+ */
+class SpatialIndex {
+    interface NeighbourVisitor {
+        /** {@code distanceSq} is the metric's squared distance. */
+        void visit(int index, double distanceSq);
+    }
+
+    private double[][] coords;          // x, y and z columns in cell order, NaN where a point was removed
+    private final double[] cellSize;    // infinite for a single layer
+    private final long[] minCell = new long[3];
+    private final long[] maxCell = new long[3];
+    private final Map<Long, Integer> cellIds = new HashMap<>();
+    private long[] cellCoords = new long[48]; // x, y and z cell coordinates of every cell
+    private int[] cellStart;            // offsets into cellPoints, one extra slot at the end
+    private int[] cellPoints;           // point indices grouped by cell, ascending within a cell, -1 if removed
+    private int[] pointCell;            // cell of each laid out point
+    private boolean cliques;            // any two points in one cell are close, see forClusters
+    private int count;
+
+    // Points added since the cells were laid out, in the same column form
+    private double[][] added = new double[3][16];
+    private int[] addedPoints = new int[16];
+    private int addedCount;
+    private int removedSlots;           // holes left in the cells by removed points
+
+    private int[] slotOf;               // slot in cell order, -2 - slot among the added points, -1 if free
+    private int[] freeIndices = new int[16];
+    private int freeCount;
+    private int nextIndex;
+
+    SpatialIndex(double[] xs, double[] ys, double[] zs, int count, double cellX, double cellY, double cellZ) {
+        this.cellSize = new double[] {cellX, cellY, cellZ};
+        int[] points = new int[count];
+        for (int i = 0; i < count; i++) {
+            points[i] = i;
+        }
+        slotOf = new int[Math.max(16, count)];
+        Arrays.fill(slotOf, -1);
+        nextIndex = count;
+        layOut(points, xs, ys, zs, count);
+    }
+
+    // Lays out the points contiguously per cell; points[i] is the index of the point at xs[i], ys[i], zs[i]
+    private void layOut(int[] points, double[] xs, double[] ys, double[] zs, int count) {
+        this.count = count;
+        cellIds.clear();
+        Arrays.fill(minCell, Long.MAX_VALUE);
+        Arrays.fill(maxCell, Long.MIN_VALUE);
+
+        // Assign every point to a cell and count points per cell
+        int[] cellOf = new int[count];
+        int[] cellCounts = new int[Math.max(16, count / 4)];
+        long[] cell = new long[3];
+        for (int i = 0; i < count; i++) {
+            cellOf(xs[i], ys[i], zs[i], cell);
+            for (int axis = 0; axis < 3; axis++) {
+                minCell[axis] = Math.min(minCell[axis], cell[axis]);
+                maxCell[axis] = Math.max(maxCell[axis], cell[axis]);
+            }
+            int id = cellId(cell[0], cell[1], cell[2]);
+            if (id < 0) {
+                id = addCell(cell[0], cell[1], cell[2]);
+                if (id == cellCounts.length) {
+                    cellCounts = Arrays.copyOf(cellCounts, cellCounts.length * 2);
+                }
+            }
+            cellOf[i] = id;
+            cellCounts[id]++;
+        }
+
+        // Lay the points out contiguously per cell (counting sort keeps their order)
+        int cells = cellIds.size();
+        cellStart = new int[cells + 1];
+        for (int c = 0; c < cells; c++) {
+            cellStart[c + 1] = cellStart[c] + cellCounts[c];
+        }
+        int[] fill = Arrays.copyOf(cellStart, cells);
+        cellPoints = new int[count];
+        coords = new double[3][count];
+        pointCell = new int[slotOf.length];
+        for (int i = 0; i < count; i++) {
+            int k = fill[cellOf[i]]++;
+            cellPoints[k] = points[i];
+            coords[0][k] = xs[i];
+            coords[1][k] = ys[i];
+            coords[2][k] = zs[i];
+            pointCell[points[i]] = cellOf[i];
+            slotOf[points[i]] = k;
+        }
+    }
+
+    /** Adds a point and returns its index, which may be that of a point removed earlier. */
+    int add(double x, double y, double z) {
+        int index = freeCount > 0 ? freeIndices[--freeCount] : nextIndex++;
+        if (index == slotOf.length) {
+            slotOf = Arrays.copyOf(slotOf, slotOf.length * 2);
+        }
+        if (addedCount == addedPoints.length) {
+            for (int axis = 0; axis < 3; axis++) {
+                added[axis] = Arrays.copyOf(added[axis], addedCount * 2);
+            }
+            addedPoints = Arrays.copyOf(addedPoints, addedCount * 2);
+        }
+        added[0][addedCount] = x;
+        added[1][addedCount] = y;
+        added[2][addedCount] = z;
+        addedPoints[addedCount] = index;
+        slotOf[index] = -2 - addedCount;
+        addedCount++;
+        count++;
+        // Every query checks all added points, so lay them out before they cost more than a cell
+        if (addedCount > 64 + count / 64) {
+            compact();
+        }
+        return index;
+    }
+
+    /** Removes the point at {@code index}, which {@link #add} may hand out again. */
+    void remove(int index) {
+        int slot = slotOf[index];
+        if (slot >= 0) {
+            // NaN is never close to anything, so queries need no check for holes
+            cellPoints[slot] = -1;
+            coords[0][slot] = Double.NaN;
+            coords[1][slot] = Double.NaN;
+            coords[2][slot] = Double.NaN;
+            removedSlots++;
+        } else {
+            // Move the last added point into the gap
+            int at = -2 - slot;
+            int last = --addedCount;
+            for (int axis = 0; axis < 3; axis++) {
+                added[axis][at] = added[axis][last];
+            }
+            addedPoints[at] = addedPoints[last];
+            slotOf[addedPoints[at]] = -2 - at;
+        }
+        slotOf[index] = -1;
+        if (freeCount == freeIndices.length) {
+            freeIndices = Arrays.copyOf(freeIndices, freeCount * 2);
+        }
+        freeIndices[freeCount++] = index;
+        count--;
+        if (removedSlots > 64 + count) {
+            compact();
+        }
+    }
+
+    // Lays out the points again with the added ones in their cells and without holes
+    private void compact() {
+        int[] points = new int[count];
+        double[][] columns = new double[3][count];
+        int n = 0;
+        for (int index = 0; index < nextIndex; index++) {
+            int slot = slotOf[index];
+            if (slot == -1) {
+                continue;
+            }
+            for (int axis = 0; axis < 3; axis++) {
+                columns[axis][n] = slot >= 0 ? coords[axis][slot] : added[axis][-2 - slot];
+            }
+            points[n++] = index;
+        }
+        addedCount = 0;
+        removedSlots = 0;
+        layOut(points, columns[0], columns[1], columns[2], n);
+    }
+
+    /** An index whose cells are as large as the reach of {@code metric}, for radius queries with it. */
+    static SpatialIndex forMetric(PositionStore positions, ProximityMetric metric) {
+        return new SpatialIndex(positions.xs(), positions.ys(), positions.zs(), positions.size(),
+            cellSize(metric, 0), cellSize(metric, 1), cellSize(metric, 2));
+    }
+
+    // A zero tolerance still needs cells of some size
+    private static double cellSize(ProximityMetric metric, int axis) {
+        double reach = metric.reach(axis);
+        return reach > 0 ? reach : 1;
+    }
+
+    /**
+     * An index whose cells are small enough that any two positions in the
+     * same cell are close under {@code metric}: a tolerance box wide on each
+     * axis, or a cube whose diagonal over the axes in the distance stays below
+     * the range. A zero tolerance cannot be met that way, the cells of such an
+     * index are not {@linkplain #cellsAreCliques cliques}.
+     */
+    static SpatialIndex forClusters(PositionStore positions, ProximityMetric metric) {
+        double[] sizes = new double[3];
+        boolean cliques = true;
+        int axes = 0;
+        for (int axis = 0; axis < 3; axis++) {
+            axes += metric.uses(axis) ? 1 : 0;
+        }
+        for (int axis = 0; axis < 3; axis++) {
+            double reach = metric.reach(axis);
+            if (Double.isInfinite(reach)) {
+                sizes[axis] = reach;
+            } else if (metric.isBox()) {
+                sizes[axis] = reach > 0 ? reach : 1;
+                cliques &= reach > 0;
+            } else {
+                // A hair smaller, so rounding never puts a pair at exactly the range into one cell
+                sizes[axis] = reach / Math.sqrt(axes) * (1 - 1e-9);
+            }
+        }
+        SpatialIndex index = new SpatialIndex(positions.xs(), positions.ys(), positions.zs(), positions.size(),
+            sizes[0], sizes[1], sizes[2]);
+        index.cliques = cliques;
+        return index;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /** True if any two points in one cell are close, only for indexes built {@link #forClusters}. */
+    boolean cellsAreCliques() {
+        return cliques;
+    }
+
+    int cellCount() {
+        return cellIds.size();
+    }
+
+    /** The points of {@code cell} are {@link #pointAt} slots {@code cellStart(cell)} to {@code cellEnd(cell)}. */
+    int cellStart(int cell) {
+        return cellStart[cell];
+    }
+
+    int cellEnd(int cell) {
+        return cellStart[cell + 1];
+    }
+
+    /** Index of the point in {@code slot} of the cell order, -1 if it was removed. */
+    int pointAt(int slot) {
+        return cellPoints[slot];
+    }
+
+    int cellOfPoint(int index) {
+        return pointCell[index];
+    }
+
+    /**
+     * Visits {@code cell} and every other cell that can hold a point close to
+     * one of its points under {@code metric}, each cell once.
+     */
+    void forEachNearbyCell(int cell, ProximityMetric metric, IntConsumer visitor) {
+        long[] reach = new long[3];
+        for (int axis = 0; axis < 3; axis++) {
+            // Cells on an axis without cells, or more than the reach away, never hold close points
+            reach[axis] = Double.isInfinite(cellSize[axis]) ? 0
+                : (long) Math.ceil(metric.reach(axis) / cellSize[axis]);
+        }
+        long cx = cellCoords[3 * cell];
+        long cy = cellCoords[3 * cell + 1];
+        long cz = cellCoords[3 * cell + 2];
+        for (long dx = -reach[0]; dx <= reach[0]; dx++) {
+            for (long dy = -reach[1]; dy <= reach[1]; dy++) {
+                for (long dz = -reach[2]; dz <= reach[2]; dz++) {
+                    // Smallest gap between points of the two cells on each axis
+                    if (!metric.matches(gap(dx, 0), gap(dy, 1), gap(dz, 2))) {
+                        continue;
+                    }
+                    int id = cellId(cx + dx, cy + dy, cz + dz);
+                    if (id >= 0) {
+                        visitor.accept(id);
+                    }
+                }
+            }
+        }
+    }
+
+    private double gap(long cells, int axis) {
+        return cells == 0 ? 0 : (Math.abs(cells) - 1) * cellSize[axis];
+    }
+
+    /** Visits every point close to ({@code x}, {@code y}, {@code z}) under {@code metric}. */
+    void forEachWithin(double x, double y, double z, ProximityMetric metric, NeighbourVisitor visitor) {
+        forEachCandidate(x, y, z, metric, visitor);
+    }
+
+    /**
+     * The {@code k} points nearest to ({@code x}, {@code y}, {@code z}) by the
+     * distance of {@code metric}, nearest first and ties in index order. The
+     * metric's range or tolerances play no part here, only its distance.
+     */
+    int[] nearest(double x, double y, double z, int k, ProximityMetric metric) {
+        Nearest best = new Nearest(Math.min(k, count));
+        if (best.capacity == 0) {
+            return new int[0];
+        }
+        offer(added, addedPoints, 0, addedCount, x, y, z, metric, best);
+        long[] cell = new long[3];
+        cellOf(x, y, z, cell);
+        boolean[] visitedCells = new boolean[cellIds.size()];
+        long radiusLimit = 0;
+        double shellWidth = Double.POSITIVE_INFINITY;
+        for (int axis = 0; axis < 3; axis++) {
+            if (!Double.isInfinite(cellSize[axis])) {
+                radiusLimit = Math.max(radiusLimit,
+                    Math.max(Math.abs(cell[axis] - minCell[axis]), Math.abs(maxCell[axis] - cell[axis])));
+                // Cells on an axis the metric ignores say nothing about distance
+                shellWidth = Math.min(shellWidth, metric.uses(axis) ? cellSize[axis] : 0);
+            }
+        }
+        if (Double.isInfinite(shellWidth)) {
+            shellWidth = 0;
+        }
+
+        for (long r = 0; r <= radiusLimit; r++) {
+            // Points outside the shells searched so far are at least r cells away on some axis
+            double unseenSq = r == 0 ? 0 : (r - 1) * shellWidth * (r - 1) * shellWidth;
+            if (best.isFull() && best.worstSq() <= unseenSq) {
+                break;
+            }
+            if (shellCells(r) > cellIds.size()) {
+                // Sparse data: a shell has more cells than there are points, look at the rest in one go
+                for (int id = 0; id < visitedCells.length; id++) {
+                    if (!visitedCells[id]) {
+                        offerCell(id, x, y, z, metric, best);
+                    }
+                }
+                break;
+            }
+            long ry = Double.isInfinite(cellSize[1]) ? 0 : r;
+            for (long dx = -r; dx <= r; dx++) {
+                for (long dy = -ry; dy <= ry; dy++) {
+                    for (long dz = -r; dz <= r; dz++) {
+                        if (Math.max(Math.abs(dx), Math.max(Math.abs(dy), Math.abs(dz))) != r) {
+                            continue;
+                        }
+                        int id = cellId(cell[0] + dx, cell[1] + dy, cell[2] + dz);
+                        if (id >= 0 && !visitedCells[id]) {
+                            visitedCells[id] = true;
+                            offerCell(id, x, y, z, metric, best);
+                        }
+                    }
+                }
+            }
+        }
+        return best.indices();
+    }
+
+    private void offerCell(int id, double x, double y, double z, ProximityMetric metric, Nearest best) {
+        offer(coords, cellPoints, cellStart[id], cellStart[id + 1], x, y, z, metric, best);
+    }
+
+    private static void offer(double[][] columns, int[] points, int from, int to, double x, double y, double z,
+            ProximityMetric metric, Nearest best) {
+        double[] xs = columns[0];
+        double[] ys = columns[1];
+        double[] zs = columns[2];
+        double wx = metric.weight(0);
+        double wy = metric.weight(1);
+        double wz = metric.weight(2);
+        for (int k = from; k < to; k++) {
+            if (points[k] < 0) {
+                continue;
+            }
+            double dx = xs[k] - x;
+            double dy = ys[k] - y;
+            double dz = zs[k] - z;
+            best.offer(points[k], wx * dx * dx + wy * dy * dy + wz * dz * dz);
+        }
+    }
+
+    // Cells in shell r, counting one layer for an axis without cells
+    private long shellCells(long r) {
+        long side = 2 * r + 1;
+        long inner = Math.max(0, 2 * r - 1);
+        boolean flat = Double.isInfinite(cellSize[1]);
+        return flat ? side * side - inner * inner : side * side * side - inner * inner * inner;
+    }
+
+    private void forEachCandidate(double x, double y, double z, ProximityMetric metric, NeighbourVisitor visitor) {
+        visitClose(added, addedPoints, 0, addedCount, x, y, z, metric, visitor);
+        long[] cell = new long[3];
+        cellOf(x, y, z, cell);
+        int[] visited = new int[27]; // on an axis without cells all offsets are the same cell
+        int visitedCount = 0;
+        long ry = Double.isInfinite(cellSize[1]) ? 0 : 1;
+        for (long dx = -1; dx <= 1; dx++) {
+            for (long dy = -ry; dy <= ry; dy++) {
+                for (long dz = -1; dz <= 1; dz++) {
+                    int id = cellId(cell[0] + dx, cell[1] + dy, cell[2] + dz);
+                    if (id < 0 || contains(visited, visitedCount, id)) {
+                        continue;
+                    }
+                    visited[visitedCount++] = id;
+                    visitClose(coords, cellPoints, cellStart[id], cellStart[id + 1], x, y, z, metric, visitor);
+                }
+            }
+        }
+    }
+
+    private static void visitClose(double[][] columns, int[] points, int from, int to, double x, double y, double z,
+            ProximityMetric metric, NeighbourVisitor visitor) {
+        double[] xs = columns[0];
+        double[] ys = columns[1];
+        double[] zs = columns[2];
+        if (metric.isBox()) {
+            for (int k = from; k < to; k++) {
+                double dx = xs[k] - x;
+                double dy = ys[k] - y;
+                double dz = zs[k] - z;
+                if (metric.matches(dx, dy, dz)) {
+                    visitor.visit(points[k], metric.distanceSq(dx, dy, dz));
+                }
+            }
+            return;
+        }
+        double rangeSq = metric.rangeSq();
+        double wx = metric.weight(0);
+        double wy = metric.weight(1);
+        double wz = metric.weight(2);
+        // Distance and comparison in one pass, faster than filling a buffer first
+        for (int k = from; k < to; k++) {
+            double dx = xs[k] - x;
+            double dy = ys[k] - y;
+            double dz = zs[k] - z;
+            double distanceSq = wx * dx * dx + wy * dy * dy + wz * dz * dz;
+            if (distanceSq < rangeSq) {
+                visitor.visit(points[k], distanceSq);
+            }
+        }
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void cellOf(double x, double y, double z, long[] cell) {
+        cell[0] = cellCoord(x, cellSize[0]);
+        cell[1] = cellCoord(y, cellSize[1]);
+        cell[2] = cellCoord(z, cellSize[2]);
+    }
+
+    private static long cellCoord(double value, double size) {
+        return Double.isInfinite(size) ? 0 : (long) Math.floor(value / size);
+    }
+
+    // Id of the cell with these coordinates, -1 if it holds no points
+    private int cellId(long cx, long cy, long cz) {
+        // Cells whose keys collide take the following free keys, so probe until a gap
+        for (long key = cellKey(cx, cy, cz); ; key++) {
+            Integer id = cellIds.get(key);
+            if (id == null) {
+                return -1;
+            }
+            int at = 3 * id;
+            if (cellCoords[at] == cx && cellCoords[at + 1] == cy && cellCoords[at + 2] == cz) {
+                return id;
+            }
+        }
+    }
+
+    private int addCell(long cx, long cy, long cz) {
+        long key = cellKey(cx, cy, cz);
+        while (cellIds.containsKey(key)) {
+            key++;
+        }
+        int id = cellIds.size();
+        if (3 * id + 3 > cellCoords.length) {
+            cellCoords = Arrays.copyOf(cellCoords, cellCoords.length * 2);
+        }
+        cellCoords[3 * id] = cx;
+        cellCoords[3 * id + 1] = cy;
+        cellCoords[3 * id + 2] = cz;
+        cellIds.put(key, id);
+        return id;
+    }
+
+    private static long cellKey(long cx, long cy, long cz) {
+        return cx * 0x9E3779B97F4A7C15L ^ cy * 0xC2B2AE3D27D4EB4FL ^ cz * 0x165667B19E3779F9L;
+    }
+
+    /** The best points seen so far, sorted by distance then index. */
+    private static class Nearest {
+        final int capacity;
+        private final int[] indices;
+        private final double[] distancesSq;
+        private int size;
+
+        Nearest(int capacity) {
+            this.capacity = capacity;
+            this.indices = new int[capacity];
+            this.distancesSq = new double[capacity];
+        }
+
+        boolean isFull() {
+            return size == capacity;
+        }
+
+        double worstSq() {
+            return distancesSq[size - 1];
+        }
+
+        void offer(int index, double distanceSq) {
+            if (isFull() && !before(distanceSq, index, size - 1)) {
+                return;
+            }
+            int i = isFull() ? size - 1 : size++;
+            for (; i > 0 && before(distanceSq, index, i - 1); i--) {
+                indices[i] = indices[i - 1];
+                distancesSq[i] = distancesSq[i - 1];
+            }
+            indices[i] = index;
+            distancesSq[i] = distanceSq;
+        }
+
+        private boolean before(double distanceSq, int index, int slot) {
+            return distanceSq < distancesSq[slot] || (distanceSq == distancesSq[slot] && index < indices[slot]);
+        }
+
+        int[] indices() {
+            return Arrays.copyOf(indices, size);
+        }
+    }
+}
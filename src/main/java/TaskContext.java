@@ -0,0 +1,139 @@
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cancellation flag and progress counters of one task run by a
+ * {@link TaskExecutor}. Engine code reaches the task it runs in through
+ * {@link #current()} and checks for cancellation between files, so a task
+ * stops at the next file boundary and never in the middle of a write. Code
+ * that runs outside a task, like the command line, gets a context that is never
+ * cancelled and reports nowhere.
+ *
+ * <p>Progress is counted on every file but passed to the listener at most
+ * every {@link #REPORT_INTERVAL_MILLIS} milliseconds and on stage changes.
+ */
+class TaskContext {
+    interface ProgressListener {
+        void progress(Progress progress);
+    }
+
+    /** Snapshot of a task's progress in its current stage. */
+    static class Progress {
+        final String task;
+        final String stage;
+        final long done;
+        final long total;            // 0 if unknown
+        final double filesPerSecond;
+        final long etaMillis;        // -1 if unknown
+
+        Progress(String task, String stage, long done, long total, double filesPerSecond, long etaMillis) {
+            this.task = task;
+            this.stage = stage;
+            this.done = done;
+            this.total = total;
+            this.filesPerSecond = filesPerSecond;
+            this.etaMillis = etaMillis;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder(stage).append(": ").append(done);
+            if (total > 0) {
+                text.append(" / ").append(total);
+            }
+            text.append(String.format(" files, %.0f files/s", filesPerSecond));
+            if (etaMillis >= 0) {
+                long seconds = (etaMillis + 999) / 1000;
+                text.append(String.format(", ETA %d:%02d", seconds / 60, seconds % 60));
+            }
+            return text.toString();
+        }
+    }
+
+    static final long REPORT_INTERVAL_MILLIS = 200;
+
+    private static final ThreadLocal<TaskContext> CURRENT = new ThreadLocal<>();
+    private static final TaskContext NONE = new TaskContext("", null);
+
+    final String name;
+    private final ProgressListener listener;
+    private volatile boolean cancelled;
+    private volatile String stage = "";
+    private volatile long total;
+    private volatile long stageStart = System.nanoTime();
+    private final AtomicLong done = new AtomicLong();
+    private final AtomicLong lastReport = new AtomicLong();
+
+    TaskContext(String name, ProgressListener listener) {
+        this.name = name;
+        this.listener = listener;
+    }
+
+    /** The task the calling thread runs, or a no-op context outside of tasks. */
+    static TaskContext current() {
+        TaskContext context = CURRENT.get();
+        return context != null ? context : NONE;
+    }
+
+    /** Runs {@code body} with this context as the calling thread's current task. */
+    void runAsCurrent(Runnable body) {
+        CURRENT.set(this);
+        try {
+            body.run();
+        } finally {
+            CURRENT.remove();
+        }
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** Throws {@link CancellationException} once the task has been cancelled. */
+    void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException(name + " cancelled");
+        }
+    }
+
+    /** Starts a new stage of {@code total} files, 0 if the count is unknown. */
+    void beginStage(String stage, long total) {
+        this.stage = stage;
+        this.total = total;
+        this.stageStart = System.nanoTime();
+        done.set(0);
+        report(true);
+    }
+
+    /** Counts finished files in the current stage. */
+    void advance(long files) {
+        done.addAndGet(files);
+        report(false);
+    }
+
+    Progress progress() {
+        long count = done.get();
+        double seconds = (System.nanoTime() - stageStart) / 1e9;
+        double rate = seconds > 0 ? count / seconds : 0;
+        long eta = total > 0 && rate > 0 ? (long) ((total - count) / rate * 1000) : -1;
+        return new Progress(name, stage, count, total, rate, eta);
+    }
+
+    private void report(boolean force) {
+        if (listener == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long last = lastReport.get();
+        // Only one of the threads counting files reports each interval
+        if (!force && (now - last < REPORT_INTERVAL_MILLIS || !lastReport.compareAndSet(last, now))) {
+            return;
+        }
+        lastReport.set(now);
+        listener.progress(progress());
+    }
+}
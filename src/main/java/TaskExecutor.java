@@ -0,0 +1,75 @@
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs long operations on one shared pool of worker threads. At most one task
+ * works on a directory at a time: a task is refused while another task holds
+ * the same directory, a parent of it or one of its subdirectories, so a rename
+ * and a range check can never touch the same files at once.
+ */
+class TaskExecutor {
+    private final ExecutorService pool;
+    private final LogSink log;
+    private final List<Path> busyDirectories = new ArrayList<>();
+
+    TaskExecutor(int threads, LogSink log) {
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads), daemonThreads());
+        this.log = log;
+    }
+
+    /**
+     * Starts {@code body} for {@code directory} and returns its context, which
+     * cancels it, or null if the directory is busy. {@code onFinished} runs on
+     * the worker thread after the task ended in any way.
+     */
+    TaskContext submit(String name, String directory, Runnable body,
+                       TaskContext.ProgressListener listener, Runnable onFinished) {
+        Path key = Paths.get(directory).toAbsolutePath().normalize();
+        synchronized (busyDirectories) {
+            for (Path busy : busyDirectories) {
+                if (busy.startsWith(key) || key.startsWith(busy)) {
+                    return null;
+                }
+            }
+            busyDirectories.add(key);
+        }
+
+        TaskContext context = new TaskContext(name, listener);
+        pool.execute(() -> {
+            try {
+                context.runAsCurrent(body);
+            } catch (CancellationException e) {
+                log.log("\n" + name + " cancelled");
+            } catch (RuntimeException e) {
+                log.log("Error running " + name);
+                e.printStackTrace();
+            } finally {
+                synchronized (busyDirectories) {
+                    busyDirectories.remove(key);
+                }
+                onFinished.run();
+            }
+        });
+        return context;
+    }
+
+    void shutdown() {
+        pool.shutdown();
+    }
+
+    private static ThreadFactory daemonThreads() {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "task-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
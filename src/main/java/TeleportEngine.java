@@ -0,0 +1,1121 @@
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The file operations behind both the Swing window and the command line. All
+ * output goes through the {@link LogSink} the engine was created with.
+ */
+class TeleportEngine {
+    private static final int RENAME_BATCH = 256;
+    private static final long KEPT_CONTENTS_BYTES = 64L << 20; // file bytes a direct rename keeps from its check
+
+    static final int DEFAULT_IO_THREADS = 4;
+
+    private final LogSink logSink;
+    private final int loaderThreads;
+    private volatile int ioThreads = DEFAULT_IO_THREADS;
+    private volatile Path metricsDirectory;
+    private volatile ResultSink resultSink = (file, position, action, distance) -> { };
+    private volatile Map<Path, PositionIndexCache> loadedIndexes;
+
+    TeleportEngine(LogSink logSink, int loaderThreads) {
+        this.logSink = logSink;
+        this.loaderThreads = loaderThreads;
+    }
+
+    /** Threads deleting and rewriting files when a plan is applied. */
+    void setIoThreads(int threads) {
+        this.ioThreads = Math.max(1, threads);
+    }
+
+    /** Also writes the metrics of every run as a JSON file into {@code directory}, null to stop. */
+    void setMetricsDirectory(Path directory) {
+        this.metricsDirectory = directory;
+    }
+
+    /** Receives a row for every file the position checks keep or delete, alongside the log. */
+    void setResultSink(ResultSink sink) {
+        this.resultSink = sink;
+    }
+
+    /**
+     * Keeps the position index of every scanned folder in {@code indexes}
+     * instead of reading it from disk on each scan, null to always read it.
+     * Engines may share the map as long as no two of them scan the same folder
+     * at once, which {@link TaskExecutor} already rules out. The map must be
+     * safe for concurrent use and may drop entries, every scan saves its index.
+     */
+    void setLoadedIndexes(Map<Path, PositionIndexCache> indexes) {
+        this.loadedIndexes = indexes;
+    }
+
+    void processJsonFiles(String directoryPath, String baseFileName) {
+        processJsonFiles(directoryPath, baseFileName, null);
+    }
+
+    /**
+     * Renames every file not yet named "<base>_<n>.json". With a plan file the
+     * renames are only written to that file and nothing else is touched.
+     */
+    void processJsonFiles(String directoryPath, String baseFileName, Path planFile) {
+        RunMetrics metrics = RunMetrics.start("Rename");
+        try {
+            // Applied right away, the rename can rewrite the bytes its check already read
+            ChangePlan plan = planRename(directoryPath, baseFileName, planFile == null);
+            if (plan == null || savePlan(plan, planFile)) {
+                return;
+            }
+            applyPlan(plan);
+            log("Processing complete!");
+        } finally {
+            finishMetrics(metrics);
+        }
+    }
+
+    void checkPositionRange(String directoryPath, double range) {
+        checkPositionRange(directoryPath, ProximityMetric.xz(range), ScanOptions.TOP_LEVEL, KeeperPolicy.FIRST,
+            null);
+    }
+
+    void checkPositionRange(String directoryPath, ProximityMetric metric, ScanOptions options, KeeperPolicy keeper,
+            Path planFile) {
+        RunMetrics metrics = RunMetrics.start("Position range check");
+        try {
+            ChangePlan plan = planPositionRange(directoryPath, metric, options, keeper, planFile == null);
+            if (plan == null || savePlan(plan, planFile) || plan.isEmpty()) {
+                return;
+            }
+            log("\nDeleting files:");
+            applyPlan(plan);
+        } finally {
+            finishMetrics(metrics);
+        }
+    }
+
+    void checkDuplicatePositions(String directoryPath) {
+        checkDuplicatePositions(directoryPath, ScanOptions.TOP_LEVEL, null);
+    }
+
+    void checkDuplicatePositions(String directoryPath, ScanOptions options, Path planFile) {
+        RunMetrics metrics = RunMetrics.start("Duplicate position check");
+        try {
+            ChangePlan plan = planDuplicatePositions(directoryPath, options, planFile == null);
+            if (plan == null || savePlan(plan, planFile) || plan.isEmpty()) {
+                return;
+            }
+            log("\nDeleting duplicates:");
+            applyPlan(plan);
+        } finally {
+            finishMetrics(metrics);
+        }
+    }
+
+    /** Reads the positions the scan options select and writes them to a snapshot file. */
+    void exportSnapshot(String directoryPath, ScanOptions options, Path snapshotFile) {
+        RunMetrics metrics = RunMetrics.start("Snapshot export");
+        Path root = Paths.get(directoryPath);
+        PositionStore positions = new PositionStore();
+        try {
+            scanPositions(root, options, false, true, (path, pos) -> {
+                if (pos != null) {
+                    positions.add(path, pos);
+                }
+            });
+            int count = positions.size();
+            Path[] paths = new Path[count];
+            for (int i = 0; i < count; i++) {
+                paths[i] = positions.path(i);
+            }
+            long start = System.nanoTime();
+            PositionSnapshot.write(snapshotFile, root, paths, positions.xs(), positions.ys(), positions.zs(), count);
+            metrics.record(RunMetrics.Stage.WRITE, start, 1);
+            log("\nWrote " + count + " positions to snapshot " + snapshotFile);
+        } catch (IOException e) {
+            log("Error writing snapshot: " + snapshotFile);
+            e.printStackTrace();
+        } finally {
+            finishMetrics(metrics);
+        }
+    }
+
+    /**
+     * Runs the range check on a snapshot instead of the files. The snapshot may
+     * be stale, so nothing is deleted: the changes are only reported, and
+     * written to {@code planFile} if one is given for a later apply.
+     */
+    void checkSnapshotRange(Path snapshotFile, ProximityMetric metric, ScanOptions options, KeeperPolicy keeper,
+            Path planFile) {
+        RunMetrics metrics = RunMetrics.start("Snapshot range check");
+        try {
+            PositionSnapshot snapshot = openSnapshot(snapshotFile);
+            if (snapshot != null) {
+                saveSnapshotPlan(planPositionRange(snapshot.root(), PositionStore.of(snapshot), metric, options,
+                    keeper), planFile);
+            }
+        } finally {
+            finishMetrics(metrics);
+        }
+    }
+
+    /** Runs the duplicate check on a snapshot, reporting only, like {@link #checkSnapshotRange}. */
+    void checkSnapshotDuplicates(Path snapshotFile, ScanOptions options, Path planFile) {
+        RunMetrics metrics = RunMetrics.start("Snapshot duplicate check");
+        try {
+            PositionSnapshot snapshot = openSnapshot(snapshotFile);
+            if (snapshot != null) {
+                saveSnapshotPlan(planDuplicatePositions(snapshot.root(), PositionStore.of(snapshot), options),
+                    planFile);
+            }
+        } finally {
+            finishMetrics(metrics);
+        }
+    }
+
+    private void saveSnapshotPlan(ChangePlan plan, Path planFile) {
+        if (!savePlan(plan, planFile) && !plan.isEmpty()) {
+            log("\nSnapshot checks change no files, give a plan file to keep the " + plan.size() + " changes");
+        }
+    }
+
+    private PositionSnapshot openSnapshot(Path snapshotFile) {
+        try {
+            long start = System.nanoTime();
+            PositionSnapshot snapshot = PositionSnapshot.open(snapshotFile);
+            RunMetrics.current().record(RunMetrics.Stage.LIST, start, snapshot.size());
+            log(String.format("Opened snapshot of %s with %d positions in %.1f ms", snapshot.root(),
+                snapshot.size(), (System.nanoTime() - start) / 1e6));
+            return snapshot;
+        } catch (IOException e) {
+            log("Error reading snapshot: " + snapshotFile);
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Creates a watcher that flags (or, with quarantine, renames aside) new and
+     * changed files colliding with a known position. Its run() blocks until
+     * stop() is called.
+     */
+    PositionWatcher watchPositions(String directoryPath, ProximityMetric metric, boolean quarantine) {
+        return new PositionWatcher(this, Paths.get(directoryPath), metric, quarantine, logSink);
+    }
+
+    /**
+     * Positions of the top-level files of a directory in sorted order, files
+     * without one left out. Runs outside the task executor, next to tasks on
+     * the same directory, so it only reads the position index and never
+     * writes it.
+     */
+    Map<Path, double[]> readPositions(Path directory) throws IOException {
+        Map<Path, double[]> positions = new LinkedHashMap<>();
+        scanPositions(directory, ScanOptions.TOP_LEVEL, false, false, (path, pos) -> {
+            if (pos != null) {
+                positions.put(path, pos);
+            }
+        });
+        return positions;
+    }
+
+    /** A file found by {@link #findNearest}. */
+    static class Neighbour {
+        final Path path;
+        final double[] position;
+        final double distance;
+
+        Neighbour(Path path, double[] position, double distance) {
+            this.path = path;
+            this.position = position;
+            this.distance = distance;
+        }
+    }
+
+    /**
+     * The {@code count} files under a directory whose positions are nearest to
+     * {@code point} by the distance of {@code metric}, nearest first. Empty if
+     * the directory cannot be read.
+     */
+    List<Neighbour> findNearest(String directoryPath, ScanOptions options, double[] point, int count,
+            ProximityMetric metric) {
+        RunMetrics metrics = RunMetrics.start("Nearest teleport");
+        try {
+            Path root = Paths.get(directoryPath);
+            PositionStore positions = new PositionStore();
+            try {
+                scanPositions(root, options, false, true, (path, pos) -> {
+                    if (pos != null) {
+                        positions.add(path, pos);
+                    }
+                });
+            } catch (IOException e) {
+                log("Error accessing directory");
+                e.printStackTrace();
+                return new ArrayList<>();
+            }
+
+            long compareStart = System.nanoTime();
+            SpatialIndex index = SpatialIndex.forMetric(positions, metric);
+            List<Neighbour> nearest = new ArrayList<>();
+            for (int i : index.nearest(point[0], point[1], point[2], count, metric)) {
+                double[] position = positions.position(i);
+                nearest.add(new Neighbour(positions.path(i), position,
+                    metric.distance(position[0] - point[0], position[1] - point[1], position[2] - point[2])));
+            }
+            RunMetrics.current().record(RunMetrics.Stage.COMPARE, compareStart, positions.size());
+
+            log(String.format("\nNearest files to [%.2f, %.2f, %.2f] by %s:", point[0], point[1], point[2],
+                metric.distanceName()));
+            for (Neighbour neighbour : nearest) {
+                log(String.format("  %s [%.2f, %.2f, %.2f] (distance: %.2f)", displayName(root, neighbour.path),
+                    neighbour.position[0], neighbour.position[1], neighbour.position[2], neighbour.distance));
+            }
+            if (nearest.isEmpty()) {
+                log("  No files with a position found");
+            }
+            return nearest;
+        } finally {
+            finishMetrics(metrics);
+        }
+    }
+
+    /** Reads a plan written by an earlier dry run and applies it. */
+    void applyPlanFile(Path planFile) {
+        RunMetrics metrics = RunMetrics.start("Apply change plan");
+        try {
+            ChangePlan plan;
+            try {
+                plan = ChangePlan.read(planFile);
+            } catch (IOException e) {
+                log("Error reading change plan: " + planFile);
+                e.printStackTrace();
+                return;
+            }
+            log("\n=== Applying change plan for " + plan.directory() + " ===");
+            applyPlan(plan);
+        } finally {
+            finishMetrics(metrics);
+        }
+    }
+
+    // Returns true if the plan was saved instead of being applied
+    private boolean savePlan(ChangePlan plan, Path planFile) {
+        if (planFile == null) {
+            return false;
+        }
+        try {
+            plan.write(planFile);
+            log("\nDry run: " + plan.size() + " changes written to " + planFile);
+        } catch (IOException e) {
+            log("Error writing change plan: " + planFile);
+            e.printStackTrace();
+        }
+        return true;
+    }
+
+    ChangePlan planRename(String directoryPath, String baseFileName) {
+        return planRename(directoryPath, baseFileName, false);
+    }
+
+    /**
+     * With {@code applying}, for a plan applied right away, interrupted renames
+     * are recovered first and the files read by the check stay in the plan, up
+     * to {@link #KEPT_CONTENTS_BYTES}, so applying it opens them only once.
+     */
+    private ChangePlan planRename(String directoryPath, String baseFileName, boolean applying) {
+        Path directory = Paths.get(directoryPath);
+        if (applying ? !recoverInterruptedRenames(directory) : !warnInterruptedRenames(directory)) {
+            return null;
+        }
+        ChangePlan plan = new ChangePlan(directory);
+        JsonFactory factory = new JsonFactory();
+        RunMetrics metrics = RunMetrics.current();
+
+        try {
+            long listStart = System.nanoTime();
+            List<Path> listed = JsonLoader.listJsonFiles(directory);
+            metrics.record(RunMetrics.Stage.LIST, listStart, listed.size());
+            // Split the listing into already-renamed files, which only contribute
+            // their number, and the files that still need processing
+            int highest = 99; // Start from 100
+            List<Path> pending = new ArrayList<>();
+            for (Path path : listed) {
+                String fileName = path.getFileName().toString();
+                if (fileName.startsWith(baseFileName)) {
+                    highest = Math.max(highest, parseSequenceNumber(fileName, baseFileName));
+                } else {
+                    pending.add(path);
+                }
+            }
+            pending.sort(null);
+            TaskContext task = TaskContext.current();
+            task.beginStage("Checking files", pending.size());
+
+            // Only JSON objects get a number. A plan applied right away parses the whole
+            // object, so a file that is malformed further in fails here instead of in the
+            // rename and leaves no gap; a saved plan only needs the first token, the file
+            // may change before it is applied. The numbers follow the sorted order
+            // whatever the number of threads.
+            Map<Path, ByteBuffer> kept = new ConcurrentHashMap<>();
+            AtomicLong keptBytes = new AtomicLong();
+            int[] numbers = new RenameNumbering(loaderThreads).assign(pending, highest + 1, path -> {
+                long start = System.nanoTime();
+                boolean keep = applying && keptBytes.get() < KEPT_CONTENTS_BYTES;
+                ByteBuffer contents = keep ? FileBytes.readCopy(path) : FileBytes.read(path);
+                try (JsonParser parser = FileBytes.createParser(factory, contents)) {
+                    boolean isObject = parser.nextToken() == JsonToken.START_OBJECT;
+                    if (isObject && applying) {
+                        parser.skipChildren(); // throws if the object is malformed
+                    }
+                    metrics.record(RunMetrics.Stage.PARSE, start, 1);
+                    if (isObject && keep) {
+                        kept.put(path, contents);
+                        keptBytes.addAndGet(contents.remaining());
+                    }
+                    return isObject;
+                }
+            }, (path, e) -> {
+                metrics.recordError(RunMetrics.Stage.PARSE);
+                log("Error processing file: " + path);
+                e.printStackTrace();
+            }, task);
+            task.checkCancelled();
+
+            for (int i = 0; i < pending.size(); i++) {
+                if (numbers[i] >= 0) {
+                    Path path = pending.get(i);
+                    String newName = String.format("%s_%d", baseFileName, numbers[i]);
+                    plan.rename(path, path.resolveSibling(newName + ".json"), newName, "new_description",
+                        kept.get(path));
+                }
+            }
+            return plan;
+        } catch (IOException e) {
+            log("Error accessing directory");
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // Number of a "<base>_<n>.json" file name, or -1 if it doesn't match exactly
+    private static int parseSequenceNumber(String fileName, String baseFileName) {
+        int start = baseFileName.length() + 1;
+        int end = fileName.length() - 5; // remove .json
+        if (end <= start || end - start > 9 || fileName.charAt(start - 1) != '_') {
+            return -1;
+        }
+        int number = 0;
+        for (int i = start; i < end; i++) {
+            char c = fileName.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+
+    /**
+     * Groups positions into clusters of files linked by chains of close pairs
+     * and plans to delete each file that is within range of a file kept
+     * before it in keeper order.
+     */
+    ChangePlan planPositionRange(String directoryPath, ProximityMetric metric, ScanOptions options,
+            KeeperPolicy keeper, boolean applying) {
+        Path root = Paths.get(directoryPath);
+        PositionStore positions = new PositionStore();
+        
+        try {
+            // First pass: collect all positions from ALL files
+            scanPositions(root, options, applying, true, (path, pos) -> {
+                if (pos != null) {
+                    positions.add(path, pos);
+                }
+            });
+        } catch (IOException e) {
+            log("Error accessing directory");
+            e.printStackTrace();
+            return null;
+        }
+        return planPositionRange(root, positions, metric, options, keeper);
+    }
+
+    private ChangePlan planPositionRange(Path root, PositionStore positions, ProximityMetric metric,
+            ScanOptions options, KeeperPolicy keeper) {
+        ChangePlan plan = new ChangePlan(root);
+        log("\n=== Position Range Check Results ===");
+        log("Checking for positions with " + metric);
+        log("Keeping per cluster: " + keeper);
+
+        int marked = 0;
+        long compareStart = System.nanoTime();
+        for (Map.Entry<Path, PositionStore> scope : scopes(root, positions, options).entrySet()) {
+            if (options.perDirectory) {
+                log("\n--- " + displayName(root, scope.getKey()) + " ---");
+            }
+            marked += findClosePositions(root, scope.getValue(), metric, keeper, plan);
+        }
+        RunMetrics.current().record(RunMetrics.Stage.COMPARE, compareStart, positions.size());
+
+        if (marked == 0) {
+            log("\nNo files found with " + metric);
+        }
+
+        log("\nTotal files checked: " + positions.size());
+        return plan;
+    }
+
+    // Adds the files to delete among one set of positions to the plan, returns how many
+    private int findClosePositions(Path root, PositionStore positions, ProximityMetric metric,
+            KeeperPolicy keeper, ChangePlan plan) {
+        // Index on a grid with cells so small that a cell's positions are all close,
+        // so clustering only compares positions across neighbouring cells
+        SpatialIndex index = SpatialIndex.forClusters(positions, metric);
+        double[] xs = positions.xs();
+        double[] ys = positions.ys();
+        double[] zs = positions.zs();
+
+        PositionClusters clusters = new PositionClusters(positions.size());
+        clusters.joinClose(index, positions, metric);
+
+        // Like the pairwise check, a position is kept unless a kept position is within
+        // range, so a chain keeps every other link. Members are taken in keeper order.
+        int[] keptBy = new int[positions.size()];   // kept position each deleted one is close to, -1 if kept
+        int[] rank = new int[positions.size()];     // place in keeper order
+        int[] keptInCell = new int[index.cellCount()];
+        int[] nextKept = new int[positions.size()];
+        Arrays.fill(keptInCell, -1);
+        ResultSink results = resultSink;
+        int marked = 0;
+        for (int[] members : clusters.clusters()) {
+            int[] order = keeperOrder(members, positions, metric, keeper);
+            for (int place = 0; place < order.length; place++) {
+                int member = order[place];
+                rank[member] = place;
+                int kept = closestKept(index, member, xs, ys, zs, metric, keptInCell, nextKept, rank);
+                keptBy[member] = kept;
+                if (kept < 0) {
+                    int cell = index.cellOfPoint(member);
+                    nextKept[member] = keptInCell[cell];
+                    keptInCell[cell] = member;
+                }
+            }
+
+            log("\nFound " + members.length + " positions linked by " + metric + ":");
+            for (int member : members) {
+                if (keptBy[member] < 0) {
+                    Path path = positions.path(member);
+                    log(String.format("Keeping: %s [%.2f, %.2f, %.2f]",
+                        displayName(root, path), xs[member], ys[member], zs[member]));
+                    results.result(path, positions.position(member), ResultSink.Action.KEEP, Double.NaN);
+                }
+            }
+            for (int member : members) {
+                int kept = keptBy[member];
+                if (kept < 0) {
+                    continue;
+                }
+                Path path = positions.path(member);
+                double distance = metric.distance(xs[member] - xs[kept], ys[member] - ys[kept],
+                    zs[member] - zs[kept]);
+                plan.delete(path);
+                marked++;
+                log(String.format("Will delete: %s [%.2f, %.2f, %.2f] (distance to kept: %.2f)",
+                    displayName(root, path), xs[member], ys[member], zs[member], distance));
+                results.result(path, positions.position(member), ResultSink.Action.DELETE, distance);
+            }
+        }
+        return marked;
+    }
+
+    // The kept position close to member that came first in keeper order, -1 if none.
+    // Kept positions are never close to each other, so a clique cell holds at most one.
+    private static int closestKept(SpatialIndex index, int member, double[] xs, double[] ys, double[] zs,
+            ProximityMetric metric, int[] keptInCell, int[] nextKept, int[] rank) {
+        int[] found = {-1};
+        index.forEachNearbyCell(index.cellOfPoint(member), metric, cell -> {
+            for (int kept = keptInCell[cell]; kept >= 0; kept = nextKept[kept]) {
+                if ((found[0] < 0 || rank[kept] < rank[found[0]])
+                        && metric.matches(xs[member] - xs[kept], ys[member] - ys[kept], zs[member] - zs[kept])) {
+                    found[0] = kept;
+                }
+            }
+        });
+        return found[0];
+    }
+
+    // Members in the order the keeper policy prefers them; members are in path order,
+    // so ties go to the earlier path
+    private static int[] keeperOrder(int[] members, PositionStore positions, ProximityMetric metric,
+            KeeperPolicy keeper) {
+        Comparator<Integer> preferred;
+        switch (keeper) {
+            case OLDEST: {
+                long[] times = new long[members.length];
+                for (int i = 0; i < members.length; i++) {
+                    times[i] = lastModified(positions.path(members[i]));
+                }
+                preferred = Comparator.comparingLong(i -> times[i]);
+                break;
+            }
+            case LOWEST_NUMBER: {
+                long[] numbers = new long[members.length];
+                for (int i = 0; i < members.length; i++) {
+                    numbers[i] = trailingNumber(positions.path(members[i]).getFileName().toString());
+                }
+                preferred = Comparator.comparingLong(i -> numbers[i]);
+                break;
+            }
+            case CENTROID: {
+                double[] xs = positions.xs();
+                double[] ys = positions.ys();
+                double[] zs = positions.zs();
+                double cx = 0;
+                double cy = 0;
+                double cz = 0;
+                for (int member : members) {
+                    cx += xs[member];
+                    cy += ys[member];
+                    cz += zs[member];
+                }
+                cx /= members.length;
+                cy /= members.length;
+                cz /= members.length;
+                double[] distances = new double[members.length];
+                for (int i = 0; i < members.length; i++) {
+                    int member = members[i];
+                    distances[i] = metric.distanceSq(xs[member] - cx, ys[member] - cy, zs[member] - cz);
+                }
+                preferred = Comparator.comparingDouble(i -> distances[i]);
+                break;
+            }
+            default:
+                preferred = (a, b) -> 0;
+                break;
+        }
+        Integer[] places = new Integer[members.length];
+        for (int i = 0; i < members.length; i++) {
+            places[i] = i;
+        }
+        Arrays.sort(places, preferred.thenComparingInt(i -> i));
+        int[] order = new int[members.length];
+        for (int i = 0; i < members.length; i++) {
+            order[i] = members[places[i]];
+        }
+        return order;
+    }
+
+    // Files whose time cannot be read count as newest
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    // Number at the end of the name before ".json", Long.MAX_VALUE if there is none
+    private static long trailingNumber(String fileName) {
+        int end = fileName.endsWith(".json") ? fileName.length() - 5 : fileName.length();
+        int start = end;
+        while (start > 0 && end - start < 18 && isAsciiDigit(fileName.charAt(start - 1))) {
+            start--;
+        }
+        return start == end ? Long.MAX_VALUE : Long.parseLong(fileName.substring(start, end));
+    }
+
+    private static boolean isAsciiDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    ChangePlan planDuplicatePositions(String directoryPath, ScanOptions options, boolean applying) {
+        Path root = Paths.get(directoryPath);
+        PositionStore positions = new PositionStore();
+
+        try {
+            log("\n=== Starting Duplicate Position Check ===");
+            
+            // First pass: collect all positions from ALL files
+            scanPositions(root, options, applying, true, (path, pos) -> {
+                if (pos != null) {
+                    log(String.format("File: %s Position: %.2f,%.2f,%.2f",
+                        displayName(root, path), pos[0], pos[1], pos[2]));
+                    positions.add(path, pos);
+                } else {
+                    log("Warning: No position found in " + displayName(root, path));
+                }
+            });
+        } catch (IOException e) {
+            log("Error accessing directory");
+            e.printStackTrace();
+            return null;
+        }
+        return planDuplicatePositions(root, positions, options);
+    }
+
+    private ChangePlan planDuplicatePositions(Path root, PositionStore positions, ScanOptions options) {
+        ChangePlan plan = new ChangePlan(root);
+        log("\n=== Exact Duplicate Position Check Results ===");
+
+        List<PositionStore> scopeEntries = new ArrayList<>();
+        List<PositionHash> scopeHashes = new ArrayList<>();
+        long compareStart = System.nanoTime();
+        for (Map.Entry<Path, PositionStore> scope : scopes(root, positions, options).entrySet()) {
+            if (options.perDirectory) {
+                log("\n--- " + displayName(root, scope.getKey()) + " ---");
+            }
+            scopeEntries.add(scope.getValue());
+            scopeHashes.add(findDuplicatePositions(root, scope.getValue(), plan));
+        }
+        RunMetrics.current().record(RunMetrics.Stage.COMPARE, compareStart, positions.size());
+
+        // The distinct positions are only listed, and formatted, when there are no duplicates
+        if (plan.isEmpty()) {
+            log("\nNo exact duplicate positions found!");
+            log("Positions found:");
+            for (int s = 0; s < scopeHashes.size(); s++) {
+                PositionHash hash = scopeHashes.get(s);
+                for (int group = 0; group < hash.groupCount(); group++) {
+                    log("  " + hash.groupKey(group) + " : "
+                        + displayName(root, scopeEntries.get(s).path(hash.firstInGroup(group))));
+                }
+            }
+        }
+
+        log("\nTotal files checked: " + positions.size());
+        return plan;
+    }
+
+    // Adds every file but the first of each position to the plan, returns the positions grouped
+    private PositionHash findDuplicatePositions(Path root, PositionStore entries, ChangePlan plan) {
+        // Point numbers in the hash match indices into entries
+        PositionHash positions = new PositionHash(entries.size());
+        double[] xs = entries.xs();
+        double[] ys = entries.ys();
+        double[] zs = entries.zs();
+        for (int i = 0; i < entries.size(); i++) {
+            positions.add(xs[i], ys[i], zs[i]);
+        }
+
+        // Keep the first file of each position, delete the others
+        ResultSink results = resultSink;
+        for (int group = 0; group < positions.groupCount(); group++) {
+            int first = positions.firstInGroup(group);
+            if (positions.groupSize(group) > 1) {
+                log("\nDuplicate position found: " + positions.groupKey(group));
+                log("Files with this position:");
+                for (int i = first; i >= 0; i = positions.nextInGroup(i)) {
+                    log("  - " + displayName(root, entries.path(i)));
+                }
+                log("\nKeeping file: " + displayName(root, entries.path(first)));
+                results.result(entries.path(first), entries.position(first), ResultSink.Action.KEEP,
+                    Double.NaN);
+
+                // Start from the second file to keep the first one
+                for (int i = positions.nextInGroup(first); i >= 0; i = positions.nextInGroup(i)) {
+                    plan.delete(entries.path(i));
+                    results.result(entries.path(i), entries.position(i), ResultSink.Action.DELETE, 0);
+                }
+            }
+        }
+        return positions;
+    }
+
+    // The whole tree as one scope, or one scope per folder
+    private static Map<Path, PositionStore> scopes(Path root, PositionStore positions, ScanOptions options) {
+        Map<Path, PositionStore> scopes = new LinkedHashMap<>();
+        if (!options.perDirectory) {
+            scopes.put(root, positions);
+            return scopes;
+        }
+        Map<Path, List<Integer>> folders = new LinkedHashMap<>();
+        for (int i = 0; i < positions.size(); i++) {
+            folders.computeIfAbsent(positions.path(i).getParent(), k -> new ArrayList<>()).add(i);
+        }
+        for (Map.Entry<Path, List<Integer>> folder : folders.entrySet()) {
+            int[] indices = new int[folder.getValue().size()];
+            for (int i = 0; i < indices.length; i++) {
+                indices[i] = folder.getValue().get(i);
+            }
+            scopes.put(folder.getKey(), positions.select(indices, indices.length));
+        }
+        return scopes;
+    }
+
+    // Path relative to the scanned directory, just the file name for top-level files
+    private static String displayName(Path root, Path path) {
+        String name = root.relativize(path).toString();
+        return name.isEmpty() ? "." : name;
+    }
+
+    /** Carries out a plan and returns how many of its changes succeeded. */
+    int applyPlan(ChangePlan plan) {
+        if (!recoverInterruptedRenames(plan.directory())) {
+            return 0;
+        }
+        ObjectMapper mapper = new ObjectMapper();
+        JsonFieldRewriter rewriter = new JsonFieldRewriter(mapper.getFactory());
+        List<ChangePlan.Change> changes = plan.changes();
+        TaskContext task = TaskContext.current();
+        RunMetrics metrics = RunMetrics.current();
+        task.beginStage("Applying changes", changes.size());
+
+        // One journal per directory with renames, shared by all of its chunks
+        Map<Path, RenameJournal> journals = new HashMap<>();
+        for (Map.Entry<Path, List<ChangePlan.Change>> group : IoScheduler.byDirectory(changes).entrySet()) {
+            Path directory = group.getKey();
+            boolean hasRenames = group.getValue().stream().anyMatch(c -> c.kind == ChangePlan.Kind.RENAME);
+            if (!hasRenames || journals.containsKey(directory)) {
+                continue;
+            }
+            if (!directory.equals(plan.directory()) && !recoverInterruptedRenames(directory)) {
+                continue;
+            }
+            try {
+                journals.put(directory, RenameJournal.open(directory));
+            } catch (IOException e) {
+                log("Error writing rename journal in " + directory);
+                e.printStackTrace();
+            }
+        }
+
+        IoScheduler scheduler = new IoScheduler(ioThreads, RENAME_BATCH, logSink);
+        IoScheduler.Result result = scheduler.run(changes, (directory, chunk) -> {
+            RenameJournal journal = journals.get(directory);
+            if (journal == null && chunk.stream().anyMatch(c -> c.kind == ChangePlan.Kind.RENAME)) {
+                throw new IOException("No rename journal for " + directory);
+            }
+            int applied = 0;
+            for (ChangePlan.Change change : chunk) {
+                // Stop between files; each rename is journalled just before its move
+                if (task.isCancelled()) {
+                    break;
+                }
+                boolean done;
+                if (change.kind == ChangePlan.Kind.DELETE) {
+                    done = deleteFile(change.source, metrics);
+                } else {
+                    done = renameFile(mapper, rewriter, change, journal, metrics);
+                }
+                if (done) {
+                    applied++;
+                }
+                task.advance(1);
+            }
+            return applied;
+        });
+
+        // A journal is only removed once every chunk of its directory has finished; one that
+        // stopped on an error is kept for the next run to recover
+        for (Map.Entry<Path, RenameJournal> journal : journals.entrySet()) {
+            try {
+                if (result.failedDirectories.contains(journal.getKey())) {
+                    journal.getValue().keep();
+                } else {
+                    journal.getValue().close();
+                }
+            } catch (IOException e) {
+                log("Error writing rename journal in " + journal.getKey());
+                e.printStackTrace();
+            }
+        }
+        if (task.isCancelled()) {
+            log("\nCancelled after " + task.progress().done + " of " + changes.size() + " changes");
+        }
+        int failed = changes.size() - result.applied;
+        log(String.format("%nApplied %d of %d changes in %d %s%s", result.applied, changes.size(),
+            result.directories, result.directories == 1 ? "directory" : "directories",
+            failed > 0 ? " (" + failed + " failed or skipped)" : ""));
+        return result.applied;
+    }
+
+    // Finishes renames a crashed run left behind, false if the directory is unusable
+    private boolean recoverInterruptedRenames(Path directory) {
+        try {
+            RenameJournal.recover(directory, logSink);
+            return true;
+        } catch (IOException e) {
+            log("Error recovering interrupted renames in " + directory);
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Read-only runs leave a crashed run's renames alone and only point them out
+    private boolean warnInterruptedRenames(Path directory) {
+        if (Files.exists(directory.resolve(RenameJournal.JOURNAL_FILE))) {
+            log("Warning: " + directory + " has interrupted renames, the next run that changes files"
+                + " recovers them");
+        }
+        return true;
+    }
+
+    private boolean deleteFile(Path path, RunMetrics metrics) {
+        long start = System.nanoTime();
+        try {
+            Files.delete(path);
+            metrics.record(RunMetrics.Stage.DELETE, start, 1);
+            return true;
+        } catch (IOException e) {
+            metrics.recordError(RunMetrics.Stage.DELETE);
+            log("  - Error deleting " + path.getFileName());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Writes the updated document to a temp file, syncs it, journals the rename
+     * and moves it over the target atomically; the directory is synced before
+     * the source is deleted, so a crash leaves either the old file or the
+     * complete new one. Only the two values change in the written bytes unless
+     * the file needs the tree rewrite. Throws if a rename cannot be finished or
+     * cleaned up, so its journal is kept for the next run to recover.
+     */
+    private boolean renameFile(ObjectMapper mapper, JsonFieldRewriter rewriter, ChangePlan.Change change,
+            RenameJournal journal, RunMetrics metrics) throws IOException {
+        Path path = change.source;
+        Path temp = RenameJournal.tempFileFor(change.target);
+        long start = System.nanoTime();
+        boolean moved = false;
+        try {
+            // A plan applied later must not overwrite a file that appeared since
+            if (Files.exists(change.target)) {
+                journal.skipped(change);
+                log("Error processing file: " + path + " (" + change.target.getFileName() + " already exists)");
+                metrics.recordError(RunMetrics.Stage.WRITE);
+                return false;
+            }
+            ByteBuffer contents = keptContents(change);
+            boolean isObject = true;
+            RenameJournal.Checksum written;
+            try (FileChannel file = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                RenameJournal.ChecksumChannel channel = new RenameJournal.ChecksumChannel(file);
+                // Splice the new values into the original bytes where possible
+                if (!rewriter.rewrite(contents, change.name, change.description, channel)) {
+                    byte[] content = rewriteTree(mapper, contents, change);
+                    isObject = content != null;
+                    if (isObject) {
+                        ByteBuffer buffer = ByteBuffer.wrap(content);
+                        while (buffer.hasRemaining()) {
+                            channel.write(buffer);
+                        }
+                    }
+                }
+                if (isObject) {
+                    file.force(true);
+                }
+                written = channel.checksum();
+            }
+            // The temp file is closed before it is removed
+            if (!isObject) {
+                log("Error processing file: " + path + " (not a JSON object)");
+                Files.delete(temp);
+                metrics.recordError(RunMetrics.Stage.WRITE);
+                return false;
+            }
+            journal.started(change, written);
+            Files.move(temp, change.target, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+            RenameJournal.syncDirectory(change.target.getParent());
+
+            Files.delete(path);
+            journal.complete(change);
+
+            metrics.record(RunMetrics.Stage.WRITE, start, 1);
+            return true;
+        } catch (IOException e) {
+            metrics.recordError(RunMetrics.Stage.WRITE);
+            log("Error processing file: " + path);
+            e.printStackTrace();
+            if (moved) {
+                // Both files exist now; only recovery, which checks the target, may delete the source
+                throw new IOException("Renamed " + path.getFileName() + " but could not finish, journal kept", e);
+            }
+            // A temp file left behind is removed by recovery, which needs the journal to run
+            Files.deleteIfExists(temp);
+            journal.complete(change);
+            return false;
+        }
+    }
+
+    // The bytes the plan kept from its check if the file still has their size, else the file read
+    // again; never a mapping, which would keep the file from being moved on some platforms
+    private static ByteBuffer keptContents(ChangePlan.Change change) throws IOException {
+        if (change.contents != null && Files.size(change.source) == change.contents.remaining()) {
+            return change.contents.duplicate();
+        }
+        return FileBytes.readCopy(change.source);
+    }
+
+    // Sets the two fields on the parsed tree and pretty prints it, null if it is not an object
+    private static byte[] rewriteTree(ObjectMapper mapper, ByteBuffer contents, ChangePlan.Change change)
+            throws IOException {
+        JsonNode rootNode;
+        try (JsonParser parser = FileBytes.createParser(mapper.getFactory(), contents)) {
+            rootNode = mapper.readTree(parser);
+        }
+        if (!(rootNode instanceof ObjectNode)) {
+            return null;
+        }
+        ObjectNode objectNode = (ObjectNode) rootNode;
+        objectNode.put("description", change.description);
+        objectNode.put("name", change.name);
+        return mapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(rootNode);
+    }
+
+    /**
+     * Reads the position of every file the scan options select and passes them
+     * to {@code onResult} in sorted path order. Files whose size and mtime match
+     * their folder's position index are not parsed again. Only a scan for
+     * changes that are applied right away recovers interrupted renames, and
+     * only a scan with {@code saveIndex} writes the indexes back; one without
+     * reads them from disk and keeps what it parses to itself.
+     */
+    private void scanPositions(Path root, ScanOptions options, boolean applying, boolean saveIndex,
+            JsonLoader.ResultHandler<double[]> onResult) throws IOException {
+        // Interrupted renames are settled, or pointed out, in each folder before it is listed
+        RunMetrics metrics = RunMetrics.current();
+        long listStart = System.nanoTime();
+        FileScanner.DirectoryVisitor visitor = applying
+            ? this::recoverInterruptedRenames : this::warnInterruptedRenames;
+        List<Path> files = new FileScanner(loaderThreads, logSink).scan(root, options, visitor);
+        metrics.record(RunMetrics.Stage.LIST, listStart, files.size());
+        TaskContext task = TaskContext.current();
+        task.beginStage("Checking indexed positions", files.size());
+        Map<Path, PositionIndexCache> caches = new HashMap<>();
+        Map<Path, List<Path>> filesByDirectory = new LinkedHashMap<>();
+        PositionExtractor extractor = new PositionExtractor(new ObjectMapper());
+        JsonLoader loader = new JsonLoader(loaderThreads);
+
+        double[][] found = new double[files.size()][];
+        boolean[] loaded = new boolean[files.size()];
+        BasicFileAttributes[] attrs = new BasicFileAttributes[files.size()];
+        PositionIndexCache[] fileCache = new PositionIndexCache[files.size()];
+        List<Path> changed = new ArrayList<>();
+        List<Integer> changedIndex = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            task.checkCancelled();
+            Path path = files.get(i);
+            Path directory = path.getParent();
+            fileCache[i] = caches.computeIfAbsent(directory,
+                saveIndex ? this::loadIndex : PositionIndexCache::load);
+            filesByDirectory.computeIfAbsent(directory, k -> new ArrayList<>()).add(path);
+            try {
+                attrs[i] = Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (IOException e) {
+                log("Error reading file: " + path);
+                e.printStackTrace();
+                continue;
+            }
+            if (fileCache[i].isFresh(path, attrs[i])) {
+                found[i] = fileCache[i].position(path);
+                loaded[i] = true;
+            } else {
+                changed.add(path);
+                changedIndex.add(i);
+            }
+            task.advance(1);
+        }
+        task.beginStage("Parsing changed files", changed.size());
+
+        // Only new or modified files are parsed
+        final int[] next = {0};
+        loader.forEachOrdered(changed, path -> {
+            long start = System.nanoTime();
+            double[] pos = extractor.extract(path);
+            metrics.record(RunMetrics.Stage.PARSE, start, 1);
+            return pos;
+        }, (path, pos) -> {
+            int i = changedIndex.get(next[0]++);
+            found[i] = pos;
+            loaded[i] = true;
+            fileCache[i].put(path, attrs[i], pos);
+            task.advance(1);
+            task.checkCancelled();
+        }, (path, e) -> {
+            next[0]++;
+            task.advance(1);
+            metrics.recordError(RunMetrics.Stage.PARSE);
+            log("Error reading file: " + path);
+            e.printStackTrace();
+        });
+
+        if (saveIndex) {
+            for (Map.Entry<Path, List<Path>> directory : filesByDirectory.entrySet()) {
+                try {
+                    caches.get(directory.getKey()).save(directory.getValue());
+                } catch (IOException e) {
+                    log("Could not write position index for " + directory.getKey());
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        for (int i = 0; i < files.size(); i++) {
+            if (loaded[i]) {
+                onResult.accept(files.get(i), found[i]);
+            }
+        }
+    }
+
+    // The folder's index from the loaded ones if they are kept, otherwise from disk
+    private PositionIndexCache loadIndex(Path directory) {
+        Map<Path, PositionIndexCache> indexes = loadedIndexes;
+        if (indexes == null) {
+            return PositionIndexCache.load(directory);
+        }
+        // Loaded outside the map, so a synchronized map is not locked while the file is read
+        Path key = directory.toAbsolutePath().normalize();
+        PositionIndexCache index = indexes.get(key);
+        if (index == null) {
+            index = PositionIndexCache.load(directory);
+            PositionIndexCache loaded = indexes.putIfAbsent(key, index);
+            if (loaded != null) {
+                index = loaded;
+            }
+        }
+        return index;
+    }
+
+    private void finishMetrics(RunMetrics metrics) {
+        metrics.finish();
+        log(metrics.summary());
+        Path directory = metricsDirectory;
+        if (directory == null) {
+            return;
+        }
+        try {
+            log("Metrics written to " + metrics.writeJson(directory));
+        } catch (IOException e) {
+            log("Error writing metrics to " + directory);
+            e.printStackTrace();
+        }
+    }
+
+    private void log(String message) {
+        logSink.log(message);
+    }
+}
@@ -0,0 +1,598 @@
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Local HTTP front end for the engine, started with {@code --mode serve}.
+ * Every request starts a job on a {@link TaskExecutor}, so like the window's
+ * tasks no two jobs touch the same folder at once. The position indexes the
+ * jobs load stay in memory, the most recently used ones up to a limit, so
+ * checking a folder again only reads the file attributes and parses the files
+ * that changed in between.
+ *
+ * <pre>
+ * POST   /jobs/range?dir=..[&amp;range=40][&amp;metric=xz][&amp;keeper=first]   delete close positions
+ * POST   /jobs/duplicates?dir=..                                  delete duplicate positions
+ * POST   /jobs/rename?dir=..&amp;base=..                              rename to base_n.json
+ * GET    /jobs                 every job with its state
+ * GET    /jobs/{id}            state and progress of a job
+ * GET    /jobs/{id}/results    kept and deleted files as NDJSON, streamed until the job ends
+ * GET    /jobs/{id}/log        log lines as NDJSON, streamed until the job ends
+ * DELETE /jobs/{id}            cancels a job
+ * </pre>
+ *
+ * Range and duplicate jobs also take {@code recursive}, {@code max-depth},
+ * {@code glob} and {@code per-directory}, and every job takes {@code plan} to
+ * write a change plan instead of changing files, as on the command line. The
+ * plan is a plain file name, written into the service's plan directory.
+ *
+ * <p>Jobs change files anywhere the process may, so requests that start or
+ * cancel one must carry the token printed at startup as
+ * {@code Authorization: Bearer <token>}. A page in a browser cannot read the
+ * token, and requests with an {@code Origin} header or a {@code Host} other
+ * than the address the service listens on are refused outright, which keeps
+ * out pages that reach the port through a DNS name of their own.
+ */
+class TeleportService {
+    private static final int JOB_THREADS = 2;
+    private static final int FINISHED_JOBS_KEPT = 100;
+    private static final int LOG_LINES_KEPT = 100_000;
+    private static final long STREAM_POLL_MILLIS = 200;
+    private static final int LOADED_INDEXES_KEPT = 256;
+    private static final Pattern PLAN_NAME = Pattern.compile("[A-Za-z0-9_-][A-Za-z0-9._-]*");
+    private static final Pattern IP_LITERAL = Pattern.compile("[0-9.]+|\\[[0-9a-f:.]+\\]");
+
+    private enum State { RUNNING, FINISHED, CANCELLED }
+
+    /** One started operation with its log and result rows. */
+    private static class Job implements LogSink, ResultSink {
+        final int id;
+        final String type;
+        final String directory;
+        final Path planFile;       // null if the job changes files
+        final ResultStore results;
+        private final List<String> lines = new ArrayList<>();
+        private int droppedLines;
+        volatile TaskContext context;
+        private volatile boolean cancelled;
+        private volatile State state = State.RUNNING;
+
+        Job(int id, String type, String directory, Path planFile) throws IOException {
+            this.id = id;
+            this.type = type;
+            this.directory = directory;
+            this.planFile = planFile;
+            this.results = new ResultStore();
+        }
+
+        @Override
+        public synchronized void log(String message) {
+            if (lines.size() < LOG_LINES_KEPT) {
+                lines.add(message);
+            } else {
+                droppedLines++;
+            }
+        }
+
+        @Override
+        public void result(Path file, double[] position, Action action, double distance) {
+            results.result(file, position, action, distance);
+        }
+
+        synchronized List<String> lines(int from) {
+            return new ArrayList<>(lines.subList(Math.min(from, lines.size()), lines.size()));
+        }
+
+        void cancel() {
+            cancelled = true;
+            TaskContext task = context;
+            if (task != null) {
+                task.cancel();
+            }
+        }
+
+        synchronized void finish() {
+            state = cancelled ? State.CANCELLED : State.FINISHED;
+            notifyAll();
+        }
+
+        boolean isRunning() {
+            return state == State.RUNNING;
+        }
+
+        // Waits a little for the job to end, streams poll for new rows in between
+        synchronized void awaitEnd(long millis) throws InterruptedException {
+            if (state == State.RUNNING) {
+                wait(millis);
+            }
+        }
+    }
+
+    private final int loaderThreads;
+    private final int ioThreads;
+    private final Path metricsDirectory;
+    private final Path planDirectory;
+    private final LogSink log;
+    private final TaskExecutor executor;
+    // Least recently used indexes go first; an index is saved after every scan, so dropping one loses nothing
+    private final Map<Path, PositionIndexCache> loadedIndexes = Collections.synchronizedMap(
+        new LinkedHashMap<Path, PositionIndexCache>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, PositionIndexCache> eldest) {
+                return size() > LOADED_INDEXES_KEPT;
+            }
+        });
+    private final Map<Integer, Job> jobs = new LinkedHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final String token;
+    private final Set<String> allowedHosts = new HashSet<>();
+    private HttpServer server;
+
+    TeleportService(int loaderThreads, int ioThreads, Path metricsDirectory, Path planDirectory, LogSink log) {
+        this.loaderThreads = loaderThreads;
+        this.ioThreads = ioThreads;
+        this.metricsDirectory = metricsDirectory;
+        this.planDirectory = planDirectory.toAbsolutePath().normalize();
+        this.log = log;
+        this.executor = new TaskExecutor(JOB_THREADS, log);
+        byte[] secret = new byte[16];
+        new SecureRandom().nextBytes(secret);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : secret) {
+            hex.append(String.format("%02x", b));
+        }
+        this.token = hex.toString();
+    }
+
+    /** Starts answering requests on {@code address}; the server's threads keep the process running. */
+    void start(InetSocketAddress address) throws IOException {
+        Files.createDirectories(planDirectory);
+        server = HttpServer.create(address, 0);
+        server.createContext("/jobs", this::handle);
+        AtomicInteger threadCount = new AtomicInteger();
+        // Streams hold their thread until the job ends, so the pool grows with them
+        server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "http-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+        allowHosts(address.getAddress(), address.getHostString(), server.getAddress().getPort());
+        log.log("Listening on http://" + address.getHostString() + ":" + server.getAddress().getPort() + "/jobs");
+        log.log("Token for starting and cancelling jobs: " + token);
+        log.log("Change plans go to " + planDirectory);
+    }
+
+    // Host headers a client of this address sends; a page that rebinds a DNS name to it sends its own name
+    private void allowHosts(InetAddress address, String hostString, int port) {
+        List<String> names = new ArrayList<>();
+        names.add(hostString);
+        if (address.isLoopbackAddress()) {
+            Collections.addAll(names, "localhost", "127.0.0.1", "::1");
+        }
+        for (String name : names) {
+            String host = name.contains(":") ? "[" + name + "]" : name;
+            allowedHosts.add(host.toLowerCase(Locale.ROOT) + ":" + port);
+            if (port == 80) {
+                allowedHosts.add(host.toLowerCase(Locale.ROOT));
+            }
+        }
+    }
+
+    private boolean isAllowedHost(String host) {
+        if (host == null) {
+            return false;
+        }
+        host = host.trim().toLowerCase(Locale.ROOT);
+        if (allowedHosts.contains(host)) {
+            return true;
+        }
+        // Listening on every address: any address of this machine, but no names
+        InetAddress bound = server.getAddress().getAddress();
+        int colon = host.lastIndexOf(':');
+        String name = colon > host.lastIndexOf(']') ? host.substring(0, colon) : host;
+        return bound.isAnyLocalAddress() && IP_LITERAL.matcher(name).matches();
+    }
+
+    private boolean hasToken(HttpExchange exchange) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        String expected = "Bearer " + token;
+        // Compared in constant time, so response times give nothing away
+        return authorization != null && MessageDigest.isEqual(
+            authorization.trim().getBytes(StandardCharsets.UTF_8), expected.getBytes(StandardCharsets.UTF_8));
+    }
+
+    void stop() {
+        synchronized (jobs) {
+            for (Job job : jobs.values()) {
+                job.cancel();
+            }
+        }
+        if (server != null) {
+            server.stop(1);
+        }
+        executor.shutdown();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String[] parts = exchange.getRequestURI().getPath().replaceAll("/+$", "").split("/");
+            // parts[0] is empty and parts[1] is "jobs"
+            String method = exchange.getRequestMethod();
+            if (exchange.getRequestHeaders().containsKey("Origin")) {
+                sendError(exchange, 403, "Requests from web pages are not accepted");
+                return;
+            }
+            if (!isAllowedHost(exchange.getRequestHeaders().getFirst("Host"))) {
+                sendError(exchange, 403, "Unexpected Host header");
+                return;
+            }
+            if (("POST".equals(method) || "DELETE".equals(method)) && !hasToken(exchange)) {
+                exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+                sendError(exchange, 401, "Starting or cancelling jobs needs the token the service printed");
+                return;
+            }
+            if (parts.length < 2 || !parts[1].equals("jobs")) {
+                sendError(exchange, 404, "No such resource");
+                return;
+            }
+            if (parts.length == 2) {
+                if (requireMethod(exchange, method, "GET")) {
+                    sendJson(exchange, 200, listJobs());
+                }
+                return;
+            }
+            if (parts.length == 3 && "POST".equals(method) && isJobType(parts[2])) {
+                startJob(exchange, parts[2], parseQuery(exchange.getRequestURI().getRawQuery()));
+                return;
+            }
+            Job job = parts.length <= 4 ? findJob(parts[2]) : null;
+            if (job == null) {
+                sendError(exchange, 404, "No such job");
+                return;
+            }
+            if (parts.length == 3 && "DELETE".equals(method)) {
+                job.cancel();
+                sendJson(exchange, 202, describe(job));
+            } else if (parts.length == 3) {
+                if (requireMethod(exchange, method, "GET")) {
+                    sendJson(exchange, 200, describe(job));
+                }
+            } else if ("results".equals(parts[3])) {
+                if (requireMethod(exchange, method, "GET")) {
+                    streamResults(exchange, job);
+                }
+            } else if ("log".equals(parts[3])) {
+                if (requireMethod(exchange, method, "GET")) {
+                    streamLog(exchange, job);
+                }
+            } else {
+                sendError(exchange, 404, "No such resource");
+            }
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (IOException e) {
+            // Mostly clients that went away in the middle of a stream
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static boolean isJobType(String type) {
+        return type.equals("range") || type.equals("duplicates") || type.equals("rename");
+    }
+
+    // True if the request uses the expected method, otherwise answers it with 405
+    private boolean requireMethod(HttpExchange exchange, String method, String expected) throws IOException {
+        if (expected.equals(method)) {
+            return true;
+        }
+        exchange.getResponseHeaders().set("Allow", expected);
+        sendError(exchange, 405, method + " not allowed here");
+        return false;
+    }
+
+    private void startJob(HttpExchange exchange, String type, Map<String, String> query) throws IOException {
+        String directory = query.get("dir");
+        if (directory == null || !Files.isDirectory(Paths.get(directory))) {
+            throw new IllegalArgumentException("dir must name a directory");
+        }
+        Path planFile = query.containsKey("plan") ? planFile(query.get("plan")) : null;
+        Consumer<TeleportEngine> call = jobCall(type, directory, query, planFile);
+        Job job;
+        try {
+            job = new Job(nextId.incrementAndGet(), type, directory, planFile);
+        } catch (IOException e) {
+            log.log("Error creating result store for a " + type + " job");
+            e.printStackTrace();
+            sendError(exchange, 500, "Could not create the result store");
+            return;
+        }
+        TeleportEngine engine = new TeleportEngine(job, loaderThreads);
+        engine.setIoThreads(ioThreads);
+        engine.setMetricsDirectory(metricsDirectory);
+        engine.setResultSink(job);
+        engine.setLoadedIndexes(loadedIndexes);
+
+        Runnable body = () -> call.accept(engine);
+        TaskContext context = executor.submit(type + " " + directory, directory, body, null, () -> {
+            job.finish();
+            log.log("Job " + job.id + " " + job.state.name().toLowerCase(Locale.ROOT) + ": " + type + " " + directory);
+        });
+        if (context == null) {
+            job.results.close();
+            sendError(exchange, 409, "Another job is working on " + directory);
+            return;
+        }
+        job.context = context;
+        synchronized (jobs) {
+            jobs.put(job.id, job);
+            dropOldJobs();
+        }
+        log.log("Job " + job.id + " started: " + type + " " + directory);
+        exchange.getResponseHeaders().set("Location", "/jobs/" + job.id);
+        sendJson(exchange, 201, describe(job));
+    }
+
+    // Plans only go into the plan directory, so a request cannot overwrite other files
+    private Path planFile(String name) {
+        if (!PLAN_NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("plan must be a file name of letters, digits, '.', '_' and '-'");
+        }
+        return planDirectory.resolve(name);
+    }
+
+    // The engine call a job runs, after checking the request's parameters
+    private static Consumer<TeleportEngine> jobCall(String type, String directory, Map<String, String> query,
+            Path planFile) {
+        switch (type) {
+            case "rename": {
+                String baseName = query.get("base");
+                if (baseName == null || baseName.isEmpty()) {
+                    throw new IllegalArgumentException("rename requires base");
+                }
+                return engine -> engine.processJsonFiles(directory, baseName, planFile);
+            }
+            case "range": {
+                double range = Double.parseDouble(query.getOrDefault("range", "40"));
+                if (!(range > 0)) {
+                    throw new IllegalArgumentException("range must be positive");
+                }
+                String metricId = query.getOrDefault("metric", "xz");
+                ProximityMetric metric = ProximityMetric.fromId(metricId, range);
+                if (metric == null) {
+                    throw new IllegalArgumentException("Unknown metric: " + metricId);
+                }
+                String keeperId = query.getOrDefault("keeper", KeeperPolicy.FIRST.id);
+                KeeperPolicy keeper = KeeperPolicy.fromId(keeperId);
+                if (keeper == null) {
+                    throw new IllegalArgumentException("Unknown keeper policy: " + keeperId);
+                }
+                ScanOptions options = scanOptions(query);
+                return engine -> engine.checkPositionRange(directory, metric, options, keeper, planFile);
+            }
+            default: {
+                ScanOptions options = scanOptions(query);
+                return engine -> engine.checkDuplicatePositions(directory, options, planFile);
+            }
+        }
+    }
+
+    private static ScanOptions scanOptions(Map<String, String> query) {
+        int maxDepth = Boolean.parseBoolean(query.get("recursive")) ? Integer.MAX_VALUE : 0;
+        if (query.containsKey("max-depth")) {
+            maxDepth = Integer.parseInt(query.get("max-depth"));
+            if (maxDepth < 0) {
+                throw new IllegalArgumentException("max-depth must not be negative");
+            }
+        }
+        return new ScanOptions(maxDepth, query.getOrDefault("glob", ScanOptions.DEFAULT_GLOB),
+            Boolean.parseBoolean(query.get("per-directory")));
+    }
+
+    // Forgets the oldest finished jobs beyond the ones kept, with their result files
+    private void dropOldJobs() {
+        int finished = 0;
+        for (Job job : jobs.values()) {
+            if (!job.isRunning()) {
+                finished++;
+            }
+        }
+        Iterator<Job> it = jobs.values().iterator();
+        while (finished > FINISHED_JOBS_KEPT && it.hasNext()) {
+            Job job = it.next();
+            if (!job.isRunning()) {
+                it.remove();
+                finished--;
+                try {
+                    job.results.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private Job findJob(String id) {
+        try {
+            synchronized (jobs) {
+                return jobs.get(Integer.parseInt(id));
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private ArrayNode listJobs() {
+        ArrayNode list = mapper.createArrayNode();
+        synchronized (jobs) {
+            for (Job job : jobs.values()) {
+                list.add(describe(job));
+            }
+        }
+        return list;
+    }
+
+    private ObjectNode describe(Job job) {
+        ObjectNode node = mapper.createObjectNode();
+        node.put("id", job.id);
+        node.put("type", job.type);
+        node.put("dir", job.directory);
+        if (job.planFile != null) {
+            node.put("plan", job.planFile.toString());
+        }
+        node.put("state", job.state.name().toLowerCase(Locale.ROOT));
+        TaskContext context = job.context;
+        if (context != null) {
+            TaskContext.Progress progress = context.progress();
+            node.put("stage", progress.stage);
+            node.put("done", progress.done);
+            node.put("total", progress.total);
+            node.put("filesPerSecond", Math.round(progress.filesPerSecond * 10) / 10.0);
+            node.put("etaMillis", progress.etaMillis);
+        }
+        node.put("results", job.results.size());
+        return node;
+    }
+
+    // Sends rows as they are stored until the job has ended and every row is out
+    private void streamResults(HttpExchange exchange, Job job) throws IOException {
+        OutputStream out = startStream(exchange);
+        long sent = 0;
+        while (true) {
+            boolean ended = !job.isRunning(); // read before the size, so no late rows are missed
+            long size = job.results.size();
+            while (sent < size) {
+                ResultStore.Row[] rows = job.results.readRows(sent, (int) Math.min(ResultStore.PAGE_ROWS, size - sent));
+                for (ResultStore.Row row : rows) {
+                    writeLine(out, resultLine(row));
+                }
+                sent += rows.length;
+            }
+            out.flush();
+            if (ended || !awaitEnd(job)) {
+                break;
+            }
+        }
+        out.close();
+    }
+
+    private void streamLog(HttpExchange exchange, Job job) throws IOException {
+        OutputStream out = startStream(exchange);
+        int sent = 0;
+        while (true) {
+            boolean ended = !job.isRunning();
+            for (String line : job.lines(sent)) {
+                ObjectNode node = mapper.createObjectNode();
+                node.put("line", line);
+                writeLine(out, node);
+                sent++;
+            }
+            out.flush();
+            if (ended || !awaitEnd(job)) {
+                break;
+            }
+        }
+        synchronized (job) {
+            if (job.droppedLines > 0) {
+                ObjectNode node = mapper.createObjectNode();
+                node.put("dropped", job.droppedLines);
+                writeLine(out, node);
+            }
+        }
+        out.close();
+    }
+
+    // False if the streaming thread was interrupted
+    private static boolean awaitEnd(Job job) {
+        try {
+            job.awaitEnd(STREAM_POLL_MILLIS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private ObjectNode resultLine(ResultStore.Row row) {
+        ObjectNode node = mapper.createObjectNode();
+        node.put("file", row.file);
+        node.putArray("position").add(row.x).add(row.y).add(row.z);
+        node.put("action", row.action.name().toLowerCase(Locale.ROOT));
+        if (!Double.isNaN(row.distance)) {
+            node.put("distance", row.distance);
+        }
+        return node;
+    }
+
+    private static OutputStream startStream(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+        exchange.sendResponseHeaders(200, 0); // chunked
+        return new BufferedOutputStream(exchange.getResponseBody(), 64 * 1024);
+    }
+
+    private void writeLine(OutputStream out, ObjectNode node) throws IOException {
+        out.write(mapper.writeValueAsBytes(node));
+        out.write('\n');
+    }
+
+    private void sendJson(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = mapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        ObjectNode node = mapper.createObjectNode();
+        node.put("error", message);
+        sendJson(exchange, status, node);
+    }
+
+    // Query parameters; a flag given without a value counts as "true"
+    private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), "UTF-8");
+            String value = equals < 0 ? "true" : URLDecoder.decode(pair.substring(equals + 1), "UTF-8");
+            query.put(name, value);
+        }
+        return query;
+    }
+}